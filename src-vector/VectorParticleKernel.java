@@ -0,0 +1,155 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static org.lwjgl.system.MemoryUtil.memByteBuffer;
+
+// ParticleKernel on jdk.incubator.vector. The angle advance, the incremental cos/sin
+// rotation, radial decay, height damping, life decay and the trail x and z run on
+// FloatVectors of the platform's preferred species, reading and writing the store's
+// off-heap columns directly. Each lane performs the same IEEE operations as
+// ParticleStore.update in the same order, so results are identical.
+//
+// Lanes the vector path cannot finish are selected by masks and handed to the scalar
+// code: cos/sin resyncs (every ROTATION_RESYNC steps or after a large step), the trail
+// y with its TrailWarp.lookup (a table gather, which JDK 17 boxes rather than compiles
+// at 512 bits), the ring-buffer write (one scattered slot per particle) and respawns,
+// where distance < eventHorizonRadius || life <= 0. Respawns run in index order after
+// the whole vector is written, so the random stream is consumed as in the scalar loop.
+// The remainder of a range shorter than one vector uses ParticleStore.update.
+//
+// Build into bin after the main sources:
+//   javac --add-modules jdk.incubator.vector -cp "bin;lib/*" -d bin src-vector/*.java
+final class VectorParticleKernel extends ParticleKernel {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+    private final ParticleStore store;
+    private final TrailWarp warp;
+    private final ByteBuffer distance;
+    private final ByteBuffer angle;
+    private final ByteBuffer height;
+    private final ByteBuffer speed;
+    private final ByteBuffer life;
+    private final ByteBuffer cosAngle;
+    private final ByteBuffer sinAngle;
+    private final ByteBuffer rotationSteps;
+
+    // Scratch for one vector: trail x and z, and the distance and sine for the warp
+    private final float[] trailX = new float[FLOATS.length()];
+    private final float[] trailZ = new float[FLOATS.length()];
+    private final float[] trailD = new float[FLOATS.length()];
+    private final float[] trailS = new float[FLOATS.length()];
+
+    VectorParticleKernel(ParticleStore store) {
+        if (FLOATS.length() != INTS.length()) {
+            throw new IllegalStateException("Preferred float and int species differ in length");
+        }
+        if ((long) store.capacity * Float.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(store.capacity + " particles exceed a vector-addressable column");
+        }
+        this.store = store;
+        this.warp = store.warp;
+        int bytes = store.capacity * Float.BYTES;
+        distance = memByteBuffer(store.distance, bytes);
+        angle = memByteBuffer(store.angle, bytes);
+        height = memByteBuffer(store.height, bytes);
+        speed = memByteBuffer(store.speed, bytes);
+        life = memByteBuffer(store.life, bytes);
+        cosAngle = memByteBuffer(store.cosAngle, bytes);
+        sinAngle = memByteBuffer(store.sinAngle, bytes);
+        rotationSteps = memByteBuffer(store.rotationSteps, bytes);
+    }
+
+    static String describeSpecies() {
+        return "Vector API, " + FLOATS.length() + " float lanes (" + FLOATS.vectorBitSize() + "-bit)";
+    }
+
+    // Lanes set in the mask as bits; anyTrue is intrinsic, toLong is not on every JDK, so
+    // the common all-clear case stays in registers
+    private static long bits(VectorMask<Float> mask) {
+        return mask.anyTrue() ? mask.toLong() : 0L;
+    }
+
+    // The loop body is split so that each vector helper stays within the JIT's inlining
+    // budget; a helper that is not inlined would box every vector it touches. Only bits
+    // and scalars cross between them, so nothing is boxed at the calls.
+    @Override
+    void update(int from, int to, float deltaTime, ParticleRandom random) {
+        store.checkOpen();
+        int lanes = FLOATS.length();
+        int upper = from + FLOATS.loopBound(to - from);
+        float decay = store.radialDecay * deltaTime;
+        float aging = store.lifeDecay * deltaTime;
+        float damping = store.heightDamping;
+
+        for (int i = from; i < upper; i += lanes) {
+            int offset = i * Float.BYTES;
+            for (long bits = rotate(offset, deltaTime); bits != 0; bits &= bits - 1) {
+                store.syncRotation(i + Long.numberOfTrailingZeros(bits));
+            }
+            long respawn = decay(offset, decay, aging, damping);
+            for (int lane = 0; lane < lanes; lane++) {
+                store.pushTrail(i + lane, trailX[lane], trailS[lane] * warp.lookup(trailD[lane]), trailZ[lane]);
+            }
+            for (long bits = respawn; bits != 0; bits &= bits - 1) {
+                store.reset(i + Long.numberOfTrailingZeros(bits), random);
+            }
+        }
+
+        for (int i = upper; i < to; i++) {
+            store.update(i, deltaTime, random);
+        }
+    }
+
+    // Angle advance and ParticleStore.rotate; returns the lanes that need syncRotation
+    private long rotate(int offset, float deltaTime) {
+        FloatVector previous = FloatVector.fromByteBuffer(FLOATS, angle, offset, ORDER);
+        FloatVector a = previous.add(FloatVector.fromByteBuffer(FLOATS, speed, offset, ORDER).mul(deltaTime));
+        a.intoByteBuffer(angle, offset, ORDER);
+        FloatVector delta = a.sub(previous);
+        IntVector steps = IntVector.fromByteBuffer(INTS, rotationSteps, offset, ORDER).add(1);
+        steps.intoByteBuffer(rotationSteps, offset, ORDER);
+
+        // 1 - x is computed as -x + 1, which IEEE arithmetic rounds identically
+        FloatVector d2 = delta.mul(delta);
+        FloatVector sinDelta = delta.mul(d2.div(6.0f).mul(d2.div(20.0f).neg().add(1.0f)).neg().add(1.0f));
+        FloatVector cosDelta = d2.div(2.0f).mul(d2.div(12.0f).mul(d2.div(30.0f).neg().add(1.0f)).neg().add(1.0f))
+            .neg().add(1.0f);
+        FloatVector c = FloatVector.fromByteBuffer(FLOATS, cosAngle, offset, ORDER);
+        FloatVector s = FloatVector.fromByteBuffer(FLOATS, sinAngle, offset, ORDER);
+        FloatVector nc = c.mul(cosDelta).sub(s.mul(sinDelta));
+        FloatVector ns = s.mul(cosDelta).add(c.mul(sinDelta));
+        FloatVector k = nc.mul(nc).add(ns.mul(ns)).mul(0.5f).neg().add(1.5f);
+        nc.mul(k).intoByteBuffer(cosAngle, offset, ORDER);
+        ns.mul(k).intoByteBuffer(sinAngle, offset, ORDER);
+
+        return bits(steps.compare(VectorOperators.GE, ParticleStore.ROTATION_RESYNC).cast(FLOATS)
+            .or(delta.abs().compare(VectorOperators.GT, 0.25f)));
+    }
+
+    // Radial decay, height damping, life decay and the trail scratch; returns the lanes
+    // to respawn
+    private long decay(int offset, float decay, float aging, float damping) {
+        FloatVector c = FloatVector.fromByteBuffer(FLOATS, cosAngle, offset, ORDER);
+        FloatVector s = FloatVector.fromByteBuffer(FLOATS, sinAngle, offset, ORDER);
+        FloatVector d = FloatVector.fromByteBuffer(FLOATS, distance, offset, ORDER).sub(decay);
+        d.intoByteBuffer(distance, offset, ORDER);
+        FloatVector.fromByteBuffer(FLOATS, height, offset, ORDER).mul(damping).intoByteBuffer(height, offset, ORDER);
+        FloatVector l = FloatVector.fromByteBuffer(FLOATS, life, offset, ORDER).sub(aging);
+        l.intoByteBuffer(life, offset, ORDER);
+
+        d.mul(c).intoArray(trailX, 0);
+        d.mul(s).intoArray(trailZ, 0);
+        d.intoArray(trailD, 0);
+        s.intoArray(trailS, 0);
+        return bits(d.compare(VectorOperators.LT, store.eventHorizonRadius).or(l.compare(VectorOperators.LE, 0.0f)));
+    }
+}
@@ -0,0 +1,343 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Barnes-Hut octree over equal-mass bodies, rebuilt from scratch every step.
+//
+// Building sorts the bodies along a Morton curve (MAX_DEPTH levels, 3 bits each), so
+// every node covers a contiguous range of sorted bodies and its children are found by
+// binary search on the next 3 key bits. Nodes whose bodies all fall into one octant are
+// not materialised, which bounds the tree to 2N nodes. Keys, the gather into sorted
+// order and large subtrees are computed in parallel when a pool is given.
+//
+// Accelerations are evaluated with Plummer softening; a node is used as a point mass
+// when side / distance < theta, so theta = 0 reduces to direct summation.
+final class BarnesHutTree {
+
+    static final int MAX_DEPTH = 10;
+    static final int LEAF_SIZE = 8;
+    static final int STACK_SIZE = 8 * (MAX_DEPTH + 2);
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    float theta = 0.5f;
+    float softening = 0.01f;
+
+    private int bodyCount;
+    private float bodyMass;
+    private long[] keys = new long[0];   // Morton key << 32 | body index
+    private float[] bx = new float[0], by = new float[0], bz = new float[0];
+
+    private float[] comX = new float[0], comY = new float[0], comZ = new float[0];
+    private float[] side = new float[0];
+    private int[] firstChild = new int[0]; // -1 for leaves
+    private int[] childCount = new int[0];
+    private int[] lo = new int[0], hi = new int[0]; // sorted body range
+    private final AtomicInteger nodeCount = new AtomicInteger();
+
+    private float minX, minY, minZ, extent;
+
+    int nodeCount() {
+        return nodeCount.get();
+    }
+
+    // Builds the tree over n bodies of equal mass read from the given position columns
+    void build(long posX, long posY, long posZ, int n, float mass, ForkJoinPool pool) {
+        ensureCapacity(n);
+        bodyCount = n;
+        bodyMass = mass;
+        nodeCount.set(0);
+        if (n == 0) {
+            return;
+        }
+
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, z0 = Float.MAX_VALUE;
+        float x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE, z1 = -Float.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            float x = ParticleStore.getFloat(posX, i), y = ParticleStore.getFloat(posY, i), z = ParticleStore.getFloat(posZ, i);
+            x0 = Math.min(x0, x); x1 = Math.max(x1, x);
+            y0 = Math.min(y0, y); y1 = Math.max(y1, y);
+            z0 = Math.min(z0, z); z1 = Math.max(z1, z);
+        }
+        minX = x0;
+        minY = y0;
+        minZ = z0;
+        extent = Math.max(Math.max(x1 - x0, y1 - y0), Math.max(z1 - z0, 1e-6f)) * 1.0001f;
+
+        float scale = (1 << MAX_DEPTH) / extent;
+        forRange(pool, n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int qx = quantize((ParticleStore.getFloat(posX, i) - minX) * scale);
+                int qy = quantize((ParticleStore.getFloat(posY, i) - minY) * scale);
+                int qz = quantize((ParticleStore.getFloat(posZ, i) - minZ) * scale);
+                long key = spread(qx) | spread(qy) << 1 | spread(qz) << 2;
+                keys[i] = key << 32 | i;
+            }
+        });
+        if (pool != null) {
+            Arrays.parallelSort(keys, 0, n);
+        } else {
+            Arrays.sort(keys, 0, n);
+        }
+        forRange(pool, n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int body = (int) keys[i];
+                bx[i] = ParticleStore.getFloat(posX, body);
+                by[i] = ParticleStore.getFloat(posY, body);
+                bz[i] = ParticleStore.getFloat(posZ, body);
+            }
+        });
+
+        int root = nodeCount.getAndIncrement();
+        NodeTask task = new NodeTask(root, 0, n, 0, extent);
+        if (pool != null && n >= PARALLEL_THRESHOLD) {
+            pool.invoke(task);
+        } else {
+            task.compute();
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (keys.length >= n) {
+            return;
+        }
+        keys = new long[n];
+        bx = new float[n];
+        by = new float[n];
+        bz = new float[n];
+        int nodes = 2 * n + 1;
+        comX = new float[nodes];
+        comY = new float[nodes];
+        comZ = new float[nodes];
+        side = new float[nodes];
+        firstChild = new int[nodes];
+        childCount = new int[nodes];
+        lo = new int[nodes];
+        hi = new int[nodes];
+    }
+
+    private static int quantize(float v) {
+        return Math.max(0, Math.min((int) v, (1 << MAX_DEPTH) - 1));
+    }
+
+    // Spreads 10 bits so that there are two zero bits between each
+    private static long spread(int v) {
+        long x = v & 0x3FF;
+        x = (x | x << 16) & 0x030000FFL;
+        x = (x | x << 8) & 0x0300F00FL;
+        x = (x | x << 4) & 0x030C30C3L;
+        x = (x | x << 2) & 0x09249249L;
+        return x;
+    }
+
+    private int octant(int body, int level) {
+        return (int) ((keys[body] >>> 32) >>> (3 * (MAX_DEPTH - 1 - level))) & 7;
+    }
+
+    // First sorted body in [from, to) whose octant at level is >= digit
+    private int lowerBound(int from, int to, int level, int digit) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (octant(mid, level) < digit) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    @SuppressWarnings("serial")
+    private final class NodeTask extends RecursiveAction {
+        private final int node, from, to;
+        private int level;
+        private float cell; // side of the octree cell the bodies lie in
+
+        NodeTask(int node, int from, int to, int level, float cell) {
+            this.node = node;
+            this.from = from;
+            this.to = to;
+            this.level = level;
+            this.cell = cell;
+        }
+
+        @Override
+        protected void compute() {
+            lo[node] = from;
+            hi[node] = to;
+            int[] bounds = new int[9];
+            while (true) {
+                if (to - from <= LEAF_SIZE || level == MAX_DEPTH) {
+                    makeLeaf();
+                    return;
+                }
+                int nonEmpty = 0;
+                bounds[0] = from;
+                bounds[8] = to;
+                for (int digit = 1; digit < 8; digit++) {
+                    bounds[digit] = lowerBound(bounds[digit - 1], to, level, digit);
+                }
+                for (int digit = 0; digit < 8; digit++) {
+                    if (bounds[digit + 1] > bounds[digit]) {
+                        nonEmpty++;
+                    }
+                }
+                float half = cell * 0.5f;
+                if (nonEmpty == 1) {
+                    // Collapse single-child chains into this node
+                    cell = half;
+                    level++;
+                    continue;
+                }
+
+                int base = nodeCount.getAndAdd(nonEmpty);
+                firstChild[node] = base;
+                childCount[node] = nonEmpty;
+                side[node] = cell;
+                NodeTask[] children = new NodeTask[nonEmpty];
+                int c = 0;
+                for (int digit = 0; digit < 8; digit++) {
+                    if (bounds[digit + 1] > bounds[digit]) {
+                        children[c] = new NodeTask(base + c, bounds[digit], bounds[digit + 1], level + 1, half);
+                        c++;
+                    }
+                }
+                if (to - from >= PARALLEL_THRESHOLD && getPool() != null) {
+                    invokeAll(children);
+                } else {
+                    for (NodeTask child : children) {
+                        child.compute();
+                    }
+                }
+
+                double sx = 0, sy = 0, sz = 0;
+                for (int k = base; k < base + nonEmpty; k++) {
+                    double w = hi[k] - lo[k];
+                    sx += comX[k] * w;
+                    sy += comY[k] * w;
+                    sz += comZ[k] * w;
+                }
+                double count = to - from;
+                comX[node] = (float) (sx / count);
+                comY[node] = (float) (sy / count);
+                comZ[node] = (float) (sz / count);
+                return;
+            }
+        }
+
+        private void makeLeaf() {
+            firstChild[node] = -1;
+            childCount[node] = 0;
+            side[node] = cell;
+            double sx = 0, sy = 0, sz = 0;
+            for (int b = from; b < to; b++) {
+                sx += bx[b];
+                sy += by[b];
+                sz += bz[b];
+            }
+            double count = to - from;
+            comX[node] = (float) (sx / count);
+            comY[node] = (float) (sy / count);
+            comZ[node] = (float) (sz / count);
+        }
+    }
+
+    // Acceleration from all bodies at (x, y, z), written to out[0..2]. stack needs
+    // STACK_SIZE entries; one per calling thread.
+    void acceleration(float x, float y, float z, int[] stack, double[] out) {
+        double ax = 0, ay = 0, az = 0;
+        if (bodyCount > 0) {
+            double eps2 = (double) softening * softening;
+            double theta2 = (double) theta * theta;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                if (firstChild[node] < 0) {
+                    for (int b = lo[node]; b < hi[node]; b++) {
+                        double dx = bx[b] - x, dy = by[b] - y, dz = bz[b] - z;
+                        double d2 = dx * dx + dy * dy + dz * dz + eps2;
+                        double f = bodyMass / (d2 * Math.sqrt(d2));
+                        ax += f * dx;
+                        ay += f * dy;
+                        az += f * dz;
+                    }
+                    continue;
+                }
+                double dx = comX[node] - x, dy = comY[node] - y, dz = comZ[node] - z;
+                double d2 = dx * dx + dy * dy + dz * dz;
+                double s = side[node];
+                if (s * s < theta2 * d2) {
+                    double mass = (double) bodyMass * (hi[node] - lo[node]);
+                    d2 += eps2;
+                    double f = mass / (d2 * Math.sqrt(d2));
+                    ax += f * dx;
+                    ay += f * dy;
+                    az += f * dz;
+                } else {
+                    int first = firstChild[node];
+                    for (int k = childCount[node] - 1; k >= 0; k--) {
+                        stack[top++] = first + k;
+                    }
+                }
+            }
+        }
+        out[0] = ax;
+        out[1] = ay;
+        out[2] = az;
+    }
+
+    // Reference O(N^2) sum over the same bodies and softening
+    static void directAcceleration(long posX, long posY, long posZ, int n, float mass, float softening,
+                                   float x, float y, float z, double[] out) {
+        double ax = 0, ay = 0, az = 0;
+        double eps2 = (double) softening * softening;
+        for (int j = 0; j < n; j++) {
+            double dx = ParticleStore.getFloat(posX, j) - x;
+            double dy = ParticleStore.getFloat(posY, j) - y;
+            double dz = ParticleStore.getFloat(posZ, j) - z;
+            double d2 = dx * dx + dy * dy + dz * dz + eps2;
+            double f = mass / (d2 * Math.sqrt(d2));
+            ax += f * dx;
+            ay += f * dy;
+            az += f * dz;
+        }
+        out[0] = ax;
+        out[1] = ay;
+        out[2] = az;
+    }
+
+    interface RangeBody {
+        void run(int from, int to);
+    }
+
+    static void forRange(ForkJoinPool pool, int n, RangeBody body) {
+        if (pool == null || n < PARALLEL_THRESHOLD) {
+            body.run(0, n);
+        } else {
+            pool.invoke(new RangeTask(body, 0, n));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class RangeTask extends RecursiveAction {
+        private final RangeBody body;
+        private final int from, to;
+
+        RangeTask(RangeBody body, int from, int to) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(body, from, mid), new RangeTask(body, mid, to));
+        }
+    }
+}
@@ -7,13 +7,21 @@ import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 import java.io.IOException;
-import java.nio.FloatBuffer;
-import java.util.LinkedList;
-import java.util.Random;
-import org.lwjgl.BufferUtils;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class BlackHoleSimulation {  
-    
+
+    // First field, so the timeline starts before anything else is set up
+    private final StartupTimeline startup = new StartupTimeline();
+
     private long window;
     private int width = 1200;
     private int height = 900;
@@ -29,9 +37,10 @@ public class BlackHoleSimulation {
     private boolean rightMousePressed = false;
     private double lastMouseX, lastMouseY;
 
-    private Scene blackHoleScene;
-
-    private boolean objNotFound = false;
+    private MeshLod coreLod;
+    private GpuMesh coreMesh;
+    private float coreScale = 1.0f;
+    private GeometryCache geometryCache = new GeometryCache();
     
 
 
@@ -41,8 +50,26 @@ public class BlackHoleSimulation {
     private final float eventHorizonRadius = 0.6f;
     
     // Particle system
-    private static final int NUM_PARTICLES = 20000;  // More particles
-    private Particle[] particles = new Particle[NUM_PARTICLES];
+    private static final int DEFAULT_PARTICLES = 20000;  // More particles
+    private static final int MAX_RENDERED_PARTICLES = 250000; // the rest are simulated but not drawn
+    private static final int SIMULATION_RATE = 60;   // Fixed simulation steps per second
+    private final ParticleStore particles;
+    private final ParticleUpdateEngine updateEngine;
+    private FrameProfiler profiler = new FrameProfiler();
+    private final SimulationThread simulation;
+    private final ParticleBatch particleBatch;
+    private ParticleRenderer particleRenderer;
+    private ParticleVisibility visibility = new ParticleVisibility();
+    private final CameraMatrices camera = new CameraMatrices();
+
+    // --frame-budget <ms> adapts detail to the machine; without it quality stays at the top level
+    private QualityGovernor governor;
+    private GpuFrameTimer gpuTimer;
+    private QualityGovernor.Level quality = QualityGovernor.LEVELS[0];
+
+    // --lensing draws particles where photon paths make them appear; null draws them as stored
+    private boolean lensingRequested;
+    private LensingTable lensing;
     
     // Camera settings
     private float cameraDistance = 2.0f;
@@ -50,86 +77,78 @@ public class BlackHoleSimulation {
     private float cameraHeight = 0.4f;
     private float cameraSpeed = 0.03f;
     
-    private Random random = new Random();
-    private boolean paused = false;
     
-    class Particle {
-        float distance;
-        float angle;
-        float height;
-        float speed;
-        float size;
-        float[] color = new float[3];
-        float life;
-
-        private static final int TRAIL_LENGTH = 8;
-        LinkedList<float[]> trail = new LinkedList<>();
-
-        public Particle() {
-            reset();
-            life = 1.0f;
-        }
-
-        public void reset() {
-            distance = eventHorizonRadius + random.nextFloat() * 1.5f;
-            angle = random.nextFloat() * (float)Math.PI * 2;
-            height = (random.nextFloat() - 0.5f) * 0.1f;
-            speed = (0.3f + random.nextFloat() * 0.7f) / (distance * distance);
-            size = 0.015f + random.nextFloat() * 0.03f;
-
-            float tempFactor = 1.0f - (distance - eventHorizonRadius) / 1.5f;
-            color[0] = 0.9f + tempFactor * 0.1f;
-            color[1] = 0.3f + tempFactor * 0.5f;
-            color[2] = 0.1f * tempFactor;
-
-            trail.clear();
-            addCurrentPositionToTrail();
-            life = 1.0f;
-        }
-
-        public void update(float deltaTime) {
-            if (paused) return;
-
-            angle += speed * deltaTime;
-            distance -= 0.00005f * deltaTime;
-            height *= 0.998f;
-            life -= 0.0001f * deltaTime;
-
-            addCurrentPositionToTrail();
-
-            if (distance < eventHorizonRadius || life <= 0) {
-                reset();
-            }
-        }
-
-        private void addCurrentPositionToTrail() {
-            
-            float x = (float) (distance * Math.cos(angle));
-            float z = (float) (distance * Math.sin(angle));
-            float r = (float) Math.sqrt(x * x + z * z);
-            float angleFromView = (float) Math.atan2(z, x);
-            float warpBend = (float) Math.sin(angleFromView);
-            float maxWarp = 0.45f;
-            float verticalWarp = warpBend * maxWarp * (float) Math.exp(-Math.pow((r - blackHoleRadius) * 1.6f, 2));
-            float y = verticalWarp;
-
-            trail.addFirst(new float[]{x, y, z});
-            if (trail.size() > TRAIL_LENGTH) {
-                trail.removeLast();
-            }
+    // F5 writes a checkpoint here, F9 restores it; --restore <file> starts from one
+    private static final Path CHECKPOINT_PATH = Paths.get("simulation" + Checkpoint.EXTENSION);
+    private static final Path CORE_MESH_PATH = Paths.get("Textures", "sphere.obj");
+    private String restorePath;
+    // F9 reads the file on another thread and leaves it here for loop() to restore
+    private final AtomicReference<Checkpoint> pendingRestore = new AtomicReference<>();
+    private volatile boolean closing;
+
+    // Recording mode: fixed timestep, hidden window, frames written by FrameRecorder
+    private String recordDirectory;
+    private int recordFrames = 600;
+    private FrameRecorder.Codec recordCodec = FrameRecorder.Codec.LZ4;
+
+    public BlackHoleSimulation(int particleCount, long seed) {
+        long t = startup.begin();
+        particles = new ParticleStore(particleCount, blackHoleRadius, eventHorizonRadius);
+        updateEngine = new ParticleUpdateEngine(
+            particles, seed, Runtime.getRuntime().availableProcessors());
+        int rendered = Math.min(particleCount, MAX_RENDERED_PARTICLES);
+        simulation = new SimulationThread(particles, updateEngine, SIMULATION_RATE, rendered, profiler);
+        particleBatch = new ParticleBatch(rendered);
+        startup.end("particle store allocation", t);
+
+        System.out.println("Particle store: " + particles.describeMemory());
+        if (rendered < particleCount) {
+            System.out.printf("Drawing the first %,d particles%n", rendered);
         }
     }
-    
+
     public void run() {
         init();
-        loop();
+        profiler.start();
+        if (recordDirectory != null) {
+            record();
+        } else {
+            simulation.start();
+            loop();
+            // A checkpoint whose read finishes after this sees closing and frees itself
+            closing = true;
+            dropPendingRestore();
+            simulation.stop();
+        }
+        simulation.close();
+        profiler.close();
+        particleRenderer.dispose();
+        if (gpuTimer != null) {
+            gpuTimer.dispose();
+        }
+        coreMesh.dispose();
+        geometryCache.dispose();
+        updateEngine.shutdown();
+        particles.close();
         GLFW.glfwTerminate();
     }
     
+    // Particle seeding (or restoring), loading the core mesh and, with --lensing, the lensing
+    // table need no GL context, so they run on startup threads while the window and context
+    // are created; only the upload waits for them. A failed task stops startup with its cause.
     private void init() {
+        ExecutorService loader = Executors.newFixedThreadPool(3, runnable -> {
+            Thread thread = new Thread(runnable, "startup-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletableFuture<float[]> particlesReady = CompletableFuture.supplyAsync(this::prepareParticles, loader);
+        CompletableFuture<MeshLod> coreReady = CompletableFuture.supplyAsync(this::loadCoreMesh, loader);
+        CompletableFuture<LensingTable> lensingReady = lensingRequested
+            ? CompletableFuture.supplyAsync(this::loadLensing, loader) : CompletableFuture.completedFuture(null);
+        loader.shutdown();
 
-        
-
+        long t = startup.begin();
         if (!GLFW.glfwInit()) {
             throw new IllegalStateException("Unable to initialize GLFW");
         }
@@ -155,7 +174,7 @@ public class BlackHoleSimulation {
             if (action == GLFW.GLFW_PRESS || action == GLFW.GLFW_REPEAT) {
                 switch (key) {
                     case GLFW.GLFW_KEY_ESCAPE -> GLFW.glfwSetWindowShouldClose(window, true);
-                    case GLFW.GLFW_KEY_SPACE -> paused = !paused;
+                    case GLFW.GLFW_KEY_SPACE -> simulation.setPaused(!simulation.isPaused());
                     case GLFW.GLFW_KEY_W -> panY += panSpeed;
                     case GLFW.GLFW_KEY_S -> panY -= panSpeed;
                     case GLFW.GLFW_KEY_A -> panX -= panSpeed;
@@ -164,6 +183,8 @@ public class BlackHoleSimulation {
                     case GLFW.GLFW_KEY_RIGHT -> rotationY += rotationSpeed;
                     case GLFW.GLFW_KEY_UP -> rotationX -= rotationSpeed;
                     case GLFW.GLFW_KEY_DOWN -> rotationX += rotationSpeed;
+                    case GLFW.GLFW_KEY_F5 -> saveCheckpoint();
+                    case GLFW.GLFW_KEY_F9 -> loadCheckpoint();
                 }
             }
         });
@@ -206,8 +227,10 @@ public class BlackHoleSimulation {
         
         
         GLFW.glfwMakeContextCurrent(window);
-        GLFW.glfwSwapInterval(1);
-        GLFW.glfwShowWindow(window);
+        if (recordDirectory == null) {
+            GLFW.glfwSwapInterval(1);
+            GLFW.glfwShowWindow(window);
+        }
         
         GL.createCapabilities();
         
@@ -217,153 +240,332 @@ public class BlackHoleSimulation {
         glHint(GL_POINT_SMOOTH_HINT, GL_NICEST);
         glEnable(GL_BLEND);
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
-        
-        // Initialize particles
-        for (int i = 0; i < NUM_PARTICLES; i++) {
-            particles[i] = new Particle();
+
+        particleRenderer = new ParticleRenderer();
+        if (governor != null) {
+            if (GpuFrameTimer.supported()) {
+                gpuTimer = new GpuFrameTimer();
+            } else {
+                // Without GPU timings the frame time is all there is, and vsync would pin it
+                GLFW.glfwSwapInterval(0);
+                System.out.println("No GPU timer queries; vsync is off so frame times measure the work");
+            }
         }
-        
-        //This will parse the Sphere OBJ File
+        startup.end("window and GL context", t);
+
+        t = startup.begin();
+        float[] savedCamera = await(particlesReady, "particle seeding");
+        coreLod = await(coreReady, "core mesh loading");
+        lensing = await(lensingReady, "lensing table");
+        startup.end("waiting for startup tasks", t);
+        if (savedCamera != null) {
+            applyCamera(savedCamera);
+        }
+
+        t = startup.begin();
+        System.out.println("Core mesh: " + coreLod.report());
+        coreMesh = new GpuMesh(coreLod.mesh);
+        startup.end("core mesh upload", t);
+    }
+
+    private static <T> T await(CompletableFuture<T> task, String name) {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Startup task failed: " + name, e.getCause());
+        }
+    }
+
+    // Seeds every particle, then applies --restore; returns the checkpoint's camera, if any.
+    // The simulation thread is not running yet, so the restore happens right here.
+    private float[] prepareParticles() {
+        long t = startup.begin();
+        updateEngine.seed();
+        startup.end("particle seeding", t);
+        if (restorePath == null) {
+            return null;
+        }
+
+        t = startup.begin();
+        Checkpoint checkpoint;
         try {
-            blackHoleScene = OBJModel.parse("hi\\Textures\\sphere.obj"); 
+            checkpoint = Checkpoint.read(Paths.get(restorePath));
         } catch (IOException e) {
-            objNotFound = true;
+            throw new UncheckedIOException("Could not restore " + restorePath, e);
         }
-        
+        try {
+            simulation.restore(checkpoint);
+        } catch (RuntimeException e) {
+            checkpoint.close();
+            throw e;
+        }
+        startup.end("checkpoint restore", t);
+        return checkpoint.camera;
+    }
+
+    // The OBJ core, optimized and split into levels of detail; it is drawn scaled so its
+    // bounding radius is blackHoleRadius, whatever radius the file was generated with.
+    // Without the file, a generated sphere of the right size replaces the old per-frame
+    // display list. Other failures are errors.
+    private MeshLod loadCoreMesh() {
+        long t = startup.begin();
+        MeshLod lod;
+        try {
+            lod = MeshLod.build(OBJModel.load(CORE_MESH_PATH.toString()));
+            coreScale = blackHoleRadius / lod.boundingRadius;
+        } catch (NoSuchFileException e) {
+            System.out.println("No core mesh at " + e.getFile() + ", using a generated sphere");
+            lod = MeshLod.build(Geometry.solidSphere(blackHoleRadius, 64, 64), Geometry.sphereIndices(64, 64));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the core mesh", e);
+        }
+        startup.end("core mesh load and optimization", t);
+        return lod;
     }
     
+    // Cached table for this black hole, or built on all cores and cached
+    private LensingTable loadLensing() {
+        long t = startup.begin();
+        LensingTable table;
+        try {
+            table = LensingTable.load(blackHoleRadius, Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the lensing table", e);
+        }
+        System.out.println("Lensing table: " + table.describe());
+        startup.end("lensing table", t);
+        return table;
+    }
+
+    // Physics runs on the simulation thread; this thread only draws the newest snapshot.
+    // Camera state is only touched here, since GLFW delivers input callbacks from glfwPollEvents.
     private void loop() {
-        float lastTime = (float)GLFW.glfwGetTime();
-        
         while (!GLFW.glfwWindowShouldClose(window)) {
-            float currentTime = (float)GLFW.glfwGetTime();
-            float deltaTime = currentTime - lastTime;
-            lastTime = currentTime;
-            
-            // if (!paused) {
-            //     cameraAngle += cameraSpeed * deltaTime;
-            // }
-            
-            for (Particle p : particles) {
-                p.update(deltaTime);
+            long frame = profiler.begin(FrameProfiler.Phase.FRAME);
+            Checkpoint checkpoint = pendingRestore.getAndSet(null);
+            if (checkpoint != null) {
+                restoreCheckpoint(checkpoint);
             }
+            ParticleSnapshot snapshot = simulation.latest();
+            float blend = simulation.interpolation(snapshot, System.nanoTime());
             
-            render();
+            if (gpuTimer != null) {
+                gpuTimer.begin();
+            }
+            render(snapshot, blend);
+            if (gpuTimer != null) {
+                gpuTimer.end();
+            }
             
+            long swap = profiler.begin(FrameProfiler.Phase.BUFFER_SWAP);
             GLFW.glfwSwapBuffers(window);
+            profiler.end(FrameProfiler.Phase.BUFFER_SWAP, swap);
+            startup.firstFrame();
             GLFW.glfwPollEvents();
+            profiler.end(FrameProfiler.Phase.FRAME, frame);
+            if (governor != null) {
+                govern(swap - frame, System.nanoTime() - frame);
+            }
+            profiler.endFrame();
         }
     }
+
+    // The frame's cost is the longer of the CPU time up to the swap and the GPU time, so
+    // time spent waiting for vsync does not count; without GPU timings it is the whole
+    // frame. Parked particles are left where they are and resume when the level rises.
+    private void govern(long cpuNanos, long frameNanos) {
+        long cost = gpuTimer != null ? Math.max(cpuNanos, gpuTimer.latestNanos()) : frameNanos;
+        if (governor.update(cost)) {
+            quality = governor.level();
+            updateEngine.setActiveCount(QualityGovernor.activeParticles(quality, particles.capacity));
+            System.out.println("Governor: " + governor.describe());
+        }
+        profiler.set(FrameProfiler.Counter.QUALITY_LEVEL, governor.levelIndex());
+    }
     
-    private void render() {
+    private float[] cameraState() {
+        return new float[] {panX, panY, rotationX, rotationY, cameraDistance, cameraAngle, cameraHeight};
+    }
+
+    private void applyCamera(float[] c) {
+        if (c.length < 7) {
+            return;
+        }
+        panX = c[0];
+        panY = c[1];
+        rotationX = c[2];
+        rotationY = c[3];
+        cameraDistance = c[4];
+        cameraAngle = c[5];
+        cameraHeight = c[6];
+    }
+
+    // The simulation thread copies its state between steps and writes it in the background
+    private void saveCheckpoint() {
+        simulation.requestCheckpoint(CHECKPOINT_PATH, cameraState()).whenComplete((path, error) -> {
+            if (error != null) {
+                System.err.println("Checkpoint failed: " + error);
+            } else {
+                System.out.println("Checkpoint written to " + path);
+            }
+        });
+    }
+
+    // Reading the file can take a while, so it happens on another thread; the restore
+    // itself is handed to the simulation thread from loop()
+    private void loadCheckpoint() {
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return Checkpoint.read(CHECKPOINT_PATH);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((checkpoint, error) -> {
+            if (error != null) {
+                System.err.println("Could not load checkpoint: " + error);
+                return;
+            }
+            Checkpoint replaced = pendingRestore.getAndSet(checkpoint);
+            if (replaced != null) {
+                replaced.close();
+            }
+            if (closing) {
+                dropPendingRestore();
+            }
+        });
+    }
+
+    private void restoreCheckpoint(Checkpoint checkpoint) {
+        float[] savedCamera = checkpoint.camera;
+        long step = checkpoint.step;
+        try {
+            simulation.restore(checkpoint);
+        } catch (RuntimeException e) {
+            checkpoint.close();
+            System.err.println("Could not restore checkpoint: " + e.getMessage());
+            return;
+        }
+        applyCamera(savedCamera);
+        System.out.println("Restored step " + step + " from " + CHECKPOINT_PATH);
+    }
+
+    private void dropPendingRestore() {
+        Checkpoint checkpoint = pendingRestore.getAndSet(null);
+        if (checkpoint != null) {
+            checkpoint.close();
+        }
+    }
+
+    // Renders recordFrames frames offscreen, one simulation step each, with no wall-clock
+    // input, so equal seeds, thread counts and sizes give identical recordings
+    private void record() {
+        int encoders = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        long start = System.nanoTime();
+        FrameRecorder finished;
+        try (FrameRecorder recorder = new FrameRecorder(width, height, recordCodec, recordDirectory, encoders)) {
+            for (int i = 0; i < recordFrames && !GLFW.glfwWindowShouldClose(window); i++) {
+                long frame = profiler.begin(FrameProfiler.Phase.FRAME);
+                simulation.advance();
+                recorder.begin();
+                render(simulation.latest(), 1.0f);
+                recorder.capture();
+                startup.firstFrame();
+                GLFW.glfwPollEvents();
+                profiler.end(FrameProfiler.Phase.FRAME, frame);
+                profiler.endFrame();
+            }
+            finished = recorder;
+        } catch (IOException e) {
+            throw new RuntimeException("Could not record to " + recordDirectory, e);
+        }
+        // After close(), so the time includes draining the encoders
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Recorded %s in %.2f s (%.1f frames/s) to %s%n",
+            finished.describe(), seconds, finished.framesWritten() / seconds, recordDirectory);
+    }
+
+    private void render(ParticleSnapshot snapshot, float blend) {
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
     
-        // Set up projection
+        // Camera matrices are rebuilt only when the view or window changed
+        camera.setViewport(width, height);
+        camera.setOrbit(cameraDistance, cameraHeight, rotationY, rotationX);
+        camera.setPan(panX, panY);
+        camera.update();
         glMatrixMode(GL_PROJECTION);
-        glLoadIdentity();
-        float aspect = (float) width / (float) height;
-        gluPerspective(65.0f, aspect, 0.1f, 100.0f);
-    
-        // Set up view
+        glLoadMatrixf(camera.projectionBuffer);
         glMatrixMode(GL_MODELVIEW);
-        glLoadIdentity();
-    
-        // Orbiting camera around Y-axis based on rotationY
-        float camX = (float) (cameraDistance * Math.sin(Math.toRadians(rotationY)));
-        float camZ = (float) (cameraDistance * Math.cos(Math.toRadians(rotationY)));
-        float camY = cameraHeight;
-    
-        gluLookAt(camX, camY, camZ,
-                0.0f, 0.0f, 0.0f,
-                0.0f, 1.0f, 0.0f);
-    
-        // Apply panning and scene rotation
-        glTranslatef(panX, panY, 0.0f);  // Pan in X/Y
-        glRotatef(rotationX, 1.0f, 0.0f, 0.0f);  // Rotate scene up/down
+        glLoadMatrixf(camera.viewBuffer);
+
+        // Frustum for culling particles, in the same space they are drawn in
+        visibility.begin(camera);
+        if (lensing != null) {
+            lensing.begin(camera);
+        }
     
         // Draw event horizon glow
+        long t = profiler.begin(FrameProfiler.Phase.GLOW);
         for (int i = 0; i < 3; i++) {
             float scale = 1.0f + i * 0.05f;
             float alpha = 0.2f - i * 0.05f;
             glColor4f(0.8f, 0.4f, 0.1f, alpha);
             glPushMatrix();
             glScalef(scale, scale, scale);
-            glutWireSphere(eventHorizonRadius, 32, 32);
+            geometryCache.wireSphere(eventHorizonRadius, 32, 32).draw();
             glPopMatrix();
         }
     
-        // Draw particles and their trails
-        for (Particle p : particles) {
-            if (p.distance < blackHoleRadius * 1.1f) continue;
-    
-            // Draw trail
-            glBegin(GL_LINE_STRIP);
-            int i = 0;
-            for (float[] pos : p.trail) {
-                float alpha = (1.0f - i / (float) p.trail.size()) * p.life;
-                glColor4f(p.color[0], p.color[1], p.color[2], alpha);
-                glVertex3f(pos[0], pos[1], pos[2]);
-                i++;
-            }
-            glEnd();
-    
-            // Draw main particle
-            float[] pos = p.trail.getFirst();
-            float lensFactor = 1.0f + 0.7f * blackHoleRadius / p.distance;
-            float distortion = 1.0f + 0.3f * (float) Math.sin(p.angle * 5);
-            float pointSize = p.size * 120 * lensFactor * distortion;
+        profiler.end(FrameProfiler.Phase.GLOW, t);
     
-            glColor3f(p.color[0] * p.life, p.color[1] * p.life, p.color[2] * p.life);
-            glPointSize(pointSize);
-            glBegin(GL_POINTS);
-            glVertex3f(pos[0], pos[1], pos[2]);
-            glEnd();
+        // Draw particles and their trails
+        t = profiler.begin(FrameProfiler.Phase.TRAIL_BUILD);
+        particleBatch.pack(snapshot, blend, visibility, quality.trailLength(), lensing);
+        profiler.end(FrameProfiler.Phase.TRAIL_BUILD, t);
+        profiler.set(FrameProfiler.Counter.PARTICLES_DRAWN, particleBatch.pointCount);
+        profiler.set(FrameProfiler.Counter.PARTICLES_CULLED, visibility.culled);
+        profiler.set(FrameProfiler.Counter.ACTIVE_PARTICLES, updateEngine.activeCount());
+
+        t = profiler.begin(FrameProfiler.Phase.PARTICLE_DRAW);
+        particleRenderer.draw(particleBatch, camera);
+        profiler.end(FrameProfiler.Phase.PARTICLE_DRAW, t);
+    
+        t = profiler.begin(FrameProfiler.Phase.RINGS);
+        // Gravitational lensing rings, which stand in for the real thing without --lensing
+        if (lensing == null) {
+            drawGravitationalLensing();
         }
     
-        // Gravitational lensing rings
-        drawGravitationalLensing();
-    
         // Photon ring
         drawPhotonRing();
-    
-        // Black hole core
-        if(!objNotFound)
-        {
-            glColor3f(0.0f, 0.0f, 0.0f);
-            glScalef(blackHoleRadius, blackHoleRadius, blackHoleRadius); // scale to match size
-            renderOBJScene(blackHoleScene);
-            glPopMatrix();
-        } else {
-            // Draw black hole core LAST to block out center
-            glColor3f(0.0f, 0.0f, 0.0f);
-            glPushMatrix();
-            glutSolidSphere(blackHoleRadius, 64, 64);
-            glPopMatrix();
-
-        }
+        profiler.end(FrameProfiler.Phase.RINGS, t);
+    
+        // Black hole core, drawn LAST to block out center
+        t = profiler.begin(FrameProfiler.Phase.CORE_MESH);
+        glColor3f(0.0f, 0.0f, 0.0f);
+        glPushMatrix();
+        glScalef(coreScale, coreScale, coreScale); // scale to match size
+        int lod = coreLod.select(coreScale, camera.eyeDistance(), height, camera.fovY());
+        lod = Math.min(lod + quality.coreLodBias(), coreLod.levels() - 1);
+        profiler.set(FrameProfiler.Counter.CORE_TRIANGLES, coreLod.triangles(lod));
+        coreMesh.draw(lod);
+        glPopMatrix();
+        profiler.end(FrameProfiler.Phase.CORE_MESH, t);
       
     }
     
     
     private void drawPhotonRing() {
-    float baseRadius = blackHoleRadius * 1.45f; // very close to horizon
-    int rings = 10;                             // number of concentric rings
-    int segments = 256;
+        float baseRadius = blackHoleRadius * 1.45f; // very close to horizon
+        int rings = 10;                             // number of concentric rings
+        int segments = quality.ringSegments();
     
-    for (int i = 0; i < rings; i++) {
-        float radius = baseRadius + i * 0.01f;
-        float alpha = 0.08f - i * 0.02f; // fade with distance
-        if (alpha <= 0) continue;
-
-        glColor4f(1.0f, 0.6f, 0.2f, alpha); // warm glow
-        glBegin(GL_LINE_LOOP);
-        for (int j = 0; j < segments; j++) {
-            float angle = (float) (2 * Math.PI * j / segments);
-            float x = (float) (radius * Math.cos(angle));
-            float z = (float) (radius * Math.sin(angle));
-            glVertex3f(x, 0.0f, z);
-        }
-        glEnd();
+        for (int i = 0; i < rings; i++) {
+            float radius = baseRadius + i * 0.01f;
+            float alpha = 0.08f - i * 0.02f; // fade with distance
+            if (alpha <= 0) continue;
+
+            glColor4f(1.0f, 0.6f, 0.2f, alpha); // warm glow
+            geometryCache.ring(radius, segments).draw();
         }
     }
 
@@ -373,148 +575,63 @@ public class BlackHoleSimulation {
         
         for (int i = 1; i <= rings; i++) {
             float radius = eventHorizonRadius * 1.5f + i * 0.3f;
-            glBegin(GL_LINE_LOOP);
-            for (int j = 0; j < 360; j += 10) {
-                float angle = (float)Math.toRadians(j);
-                float x = (float)(radius * Math.cos(angle));
-                float z = (float)(radius * Math.sin(angle));
-                glVertex3f(x, 0, z);
-            }
-            glEnd();
+            geometryCache.ring(radius, 36).draw();  // one vertex every 10 degrees
         }
     }
     
-    // Utility methods
-    private void gluPerspective(float fovy, float aspect, float zNear, float zFar) {
-        float f = 1.0f / (float)Math.tan(Math.toRadians(fovy) / 2.0f);
-        FloatBuffer matrix = BufferUtils.createFloatBuffer(16);
-        matrix.put(new float[] {
-            f/aspect, 0, 0, 0,
-            0, f, 0, 0,
-            0, 0, (zFar+zNear)/(zNear-zFar), -1,
-            0, 0, (2*zFar*zNear)/(zNear-zFar), 0
-        });
-        matrix.flip();
-        glMultMatrixf(matrix);
-    }
-    
-    private void gluLookAt(float eyeX, float eyeY, float eyeZ,
-                         float centerX, float centerY, float centerZ,
-                         float upX, float upY, float upZ) {
-        FloatBuffer matrix = BufferUtils.createFloatBuffer(16);
-        
-        float[] forward = {centerX - eyeX, centerY - eyeY, centerZ - eyeZ};
-        float len = (float)Math.sqrt(forward[0]*forward[0] + forward[1]*forward[1] + forward[2]*forward[2]);
-        forward[0] /= len; forward[1] /= len; forward[2] /= len;
-        
-        float[] up = {upX, upY, upZ};
-        float[] side = {
-            forward[1]*up[2] - forward[2]*up[1],
-            forward[2]*up[0] - forward[0]*up[2],
-            forward[0]*up[1] - forward[1]*up[0]
-        };
-        
-        len = (float)Math.sqrt(side[0]*side[0] + side[1]*side[1] + side[2]*side[2]);
-        side[0] /= len; side[1] /= len; side[2] /= len;
-        
-        up[0] = side[1]*forward[2] - side[2]*forward[1];
-        up[1] = side[2]*forward[0] - side[0]*forward[2];
-        up[2] = side[0]*forward[1] - side[1]*forward[0];
-        
-        matrix.put(new float[] {
-            side[0], up[0], -forward[0], 0,
-            side[1], up[1], -forward[1], 0,
-            side[2], up[2], -forward[2], 0,
-            0, 0, 0, 1
-        });
-        matrix.flip();
-        glMultMatrixf(matrix);
-        glTranslatef(-eyeX, -eyeY, -eyeZ);
-    }
-    
-    private void glutSolidSphere(float radius, int slices, int stacks) {
-        FloatBuffer quadric = BufferUtils.createFloatBuffer(1);
-        glNewList(1, GL_COMPILE);
-        
-        glBegin(GL_QUAD_STRIP);
-        for (int i = 0; i <= stacks; i++) {
-            double phi = Math.PI * ((double)i / stacks - 0.5);
-            for (int j = 0; j <= slices; j++) {
-                double theta = 2.0 * Math.PI * (double)j / slices;
-                
-                float x = (float)(Math.cos(theta) * Math.cos(phi));
-                float y = (float)Math.sin(phi);
-                float z = (float)(Math.sin(theta) * Math.cos(phi));
-                
-                glNormal3f(x, y, z);
-                glVertex3f(x * radius, y * radius, z * radius);
-            }
-        }
-        glEnd();
-        
-        glEndList();
-        glCallList(1);
-    }
-    
-    private void glutWireSphere(float radius, int slices, int stacks) {
-        // Longitude lines
-        for (int j = 0; j < slices; j++) {
-            glBegin(GL_LINE_LOOP);
-            for (int i = 0; i <= stacks; i++) {
-                double theta = Math.PI * ((double)i / stacks - 0.5);
-                double phi = 2.0 * Math.PI * (double)j / slices;
-                
-                float x = (float)(Math.cos(phi) * Math.cos(theta));
-                float y = (float)Math.sin(theta);
-                float z = (float)(Math.sin(phi) * Math.cos(theta));
-                
-                glVertex3f(x * radius, y * radius, z * radius);
+    // Particle count from --particles <n> or -Dbh.particles=<n>. --record <dir> renders
+    // --record-frames frames offscreen and writes them compressed with --codec lz4|zstd.
+    // --gravity integrates real orbits; --disk-mass <GM> and --theta add self-gravity.
+    // --frame-budget <ms> (e.g. 16.6 or 8.3) lets a QualityGovernor trade detail for time.
+    // --lensing bends particles and trails through a LensingTable.
+    public static void main(String[] args) {
+        int particleCount = Integer.getInteger("bh.particles", DEFAULT_PARTICLES);
+        Long seed = null;
+        String recordDirectory = null;
+        String restorePath = null;
+        GravityIntegrator gravity = null;
+        int recordFrames = 600;
+        float frameBudget = 0.0f;
+        boolean lensing = false;
+        FrameRecorder.Codec codec = FrameRecorder.Codec.LZ4;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--particles" -> particleCount = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--restore" -> restorePath = args[++i];
+                case "--gravity" -> gravity = gravity != null ? gravity : new GravityIntegrator();
+                case "--disk-mass" -> {
+                    gravity = gravity != null ? gravity : new GravityIntegrator();
+                    gravity.diskMass = Float.parseFloat(args[++i]);
+                }
+                case "--theta" -> {
+                    gravity = gravity != null ? gravity : new GravityIntegrator();
+                    gravity.setTheta(Float.parseFloat(args[++i]));
+                }
+                case "--record" -> recordDirectory = args[++i];
+                case "--record-frames" -> recordFrames = Integer.parseInt(args[++i]);
+                case "--codec" -> codec = FrameRecorder.Codec.valueOf(args[++i].toUpperCase());
+                case "--frame-budget" -> frameBudget = Float.parseFloat(args[++i]);
+                case "--lensing" -> lensing = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
             }
-            glEnd();
         }
-        
-        // Latitude lines
-        for (int i = 0; i < stacks; i++) {
-            glBegin(GL_LINE_LOOP);
-            for (int j = 0; j <= slices; j++) {
-                double theta = Math.PI * ((double)i / stacks - 0.5);
-                double phi = 2.0 * Math.PI * (double)j / slices;
-                
-                float x = (float)(Math.cos(phi) * Math.cos(theta));
-                float y = (float)Math.sin(theta);
-                float z = (float)(Math.sin(phi) * Math.cos(theta));
-                
-                glVertex3f(x * radius, y * radius, z * radius);
-            }
-            glEnd();
+        if (seed == null) {
+            // Recordings must be reproducible, interactive runs vary
+            seed = recordDirectory != null ? 42L : System.nanoTime();
         }
-    }
-    
-    //This  is to render the obj file
-    private void renderOBJScene(Scene scene) {
-        glBegin(GL_TRIANGLES);
-        for (Face face : scene.faces) {
-            if (face.vertices.length >= 3) {
-                Vector3 v0 = scene.vertices.get(face.vertices[0]);
-                Vector3 v1 = scene.vertices.get(face.vertices[1]);
-                Vector3 v2 = scene.vertices.get(face.vertices[2]);
-    
-                // Optional: compute normal
-                Vector3 edge1 = v1.subtract(v0);
-                Vector3 edge2 = v2.subtract(v0);
-                Vector3 normal = edge1.cross(edge2).normalize();
-                glNormal3d(normal.x, normal.y, normal.z);
-    
-                glVertex3d(v0.x, v0.y, v0.z);
-                glVertex3d(v1.x, v1.y, v1.z);
-                glVertex3d(v2.x, v2.y, v2.z);
-            }
+
+        BlackHoleSimulation app = new BlackHoleSimulation(particleCount, seed);
+        app.updateEngine.setGravity(gravity);
+        app.restorePath = restorePath;
+        app.recordDirectory = recordDirectory;
+        app.recordFrames = recordFrames;
+        app.recordCodec = codec;
+        app.lensingRequested = lensing;
+        // Recordings use a fixed step and must not depend on how fast this machine is
+        if (frameBudget > 0.0f && recordDirectory == null) {
+            app.governor = new QualityGovernor(frameBudget);
         }
-        glEnd();
-    }
-    
-    
-    public static void main(String[] args) {
-        new BlackHoleSimulation().run();
+        app.run();
     }
 }
\ No newline at end of file
@@ -0,0 +1,298 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+
+// Projection, view and combined matrices for the orbiting camera, kept in storage
+// allocated once and rebuilt only when an input changes. The view is the one the render
+// loop used to build on the GL matrix stack every frame:
+//
+//   gluLookAt(eye on an orbit of cameraDistance at rotationY, raised by cameraHeight,
+//             looking at the origin) * translate(panX, panY, 0) * rotateX(rotationX)
+//
+// Matrices are column-major, as GL expects. The buffers are direct and can be handed to
+// glLoadMatrixf and glUniformMatrix4fv as they are; the arrays are for CPU-side tests
+// such as ParticleVisibility. Neither may be modified by callers.
+//
+// java CameraMatrices checks the matrices against the old per-frame construction and
+// that a steady stream of frames allocates no direct buffers; it exits 1 otherwise.
+public class CameraMatrices {
+
+    final float[] projection = new float[16];
+    final float[] view = new float[16];
+    final float[] combined = new float[16];  // projection * view
+    final FloatBuffer projectionBuffer = BufferUtils.createFloatBuffer(16);
+    final FloatBuffer viewBuffer = BufferUtils.createFloatBuffer(16);
+    final FloatBuffer combinedBuffer = BufferUtils.createFloatBuffer(16);
+
+    // Eye position in world space (the hole at the origin), pan and tilt included
+    float eyeX, eyeY, eyeZ;
+
+    private int viewportWidth = 1;
+    private int viewportHeight = 1;
+    private float fovY = 65.0f;
+    private float near = 0.1f;
+    private float far = 100.0f;
+
+    private float distance = 2.0f;
+    private float height;
+    private float rotationX;
+    private float rotationY;
+    private float panX;
+    private float panY;
+
+    private boolean projectionDirty = true;
+    private boolean viewDirty = true;
+    private long rebuilds;
+
+    public void setViewport(int width, int height) {
+        if (width != viewportWidth || height != viewportHeight) {
+            viewportWidth = width;
+            viewportHeight = height;
+            projectionDirty = true;
+        }
+    }
+
+    public void setPerspective(float fovYDegrees, float zNear, float zFar) {
+        if (fovYDegrees != fovY || zNear != near || zFar != far) {
+            fovY = fovYDegrees;
+            near = zNear;
+            far = zFar;
+            projectionDirty = true;
+        }
+    }
+
+    // Orbit distance and height, yaw around Y and the scene tilt around X, in degrees
+    public void setOrbit(float distance, float height, float rotationYDegrees, float rotationXDegrees) {
+        if (distance != this.distance || height != this.height || rotationYDegrees != rotationY
+                || rotationXDegrees != rotationX) {
+            this.distance = distance;
+            this.height = height;
+            this.rotationY = rotationYDegrees;
+            this.rotationX = rotationXDegrees;
+            viewDirty = true;
+        }
+    }
+
+    public void setPan(float panX, float panY) {
+        if (panX != this.panX || panY != this.panY) {
+            this.panX = panX;
+            this.panY = panY;
+            viewDirty = true;
+        }
+    }
+
+    // Rebuilds what the changed inputs affect; returns true if anything was rebuilt
+    public boolean update() {
+        if (!projectionDirty && !viewDirty) {
+            return false;
+        }
+        if (projectionDirty) {
+            buildProjection();
+            projectionBuffer.put(0, projection);
+        }
+        if (viewDirty) {
+            buildView();
+            viewBuffer.put(0, view);
+        }
+        multiply(projection, view, combined);
+        combinedBuffer.put(0, combined);
+        projectionDirty = false;
+        viewDirty = false;
+        rebuilds++;
+        return true;
+    }
+
+    public int viewportHeight() {
+        return viewportHeight;
+    }
+
+    public float fovY() {
+        return fovY;
+    }
+
+    // Distance from the eye to the orbit centre, ignoring pan
+    public float eyeDistance() {
+        return (float) Math.hypot(distance, height);
+    }
+
+    public long rebuilds() {
+        return rebuilds;
+    }
+
+    private void buildProjection() {
+        float f = 1.0f / (float) Math.tan(Math.toRadians(fovY) / 2.0f);
+        float aspect = (float) viewportWidth / (float) viewportHeight;
+        float[] m = projection;
+        java.util.Arrays.fill(m, 0.0f);
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (far + near) / (near - far);
+        m[11] = -1.0f;
+        m[14] = (2 * far * near) / (near - far);
+    }
+
+    // lookAt rotation R (rows side, up, -forward) and translation R * (pan - eye), then
+    // the tilt applied on the right
+    private void buildView() {
+        // Eye on its orbit, before the pan and tilt move the scene under it
+        float orbitX = (float) (distance * Math.sin(Math.toRadians(rotationY)));
+        float orbitY = height;
+        float orbitZ = (float) (distance * Math.cos(Math.toRadians(rotationY)));
+
+        float fx = -orbitX, fy = -orbitY, fz = -orbitZ;
+        float len = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx /= len; fy /= len; fz /= len;
+
+        // side = forward x (0, 1, 0)
+        float sx = -fz, sy = 0.0f, sz = fx;
+        len = (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx /= len; sy /= len; sz /= len;
+
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        float tx = panX - orbitX, ty = panY - orbitY, tz = -orbitZ;
+
+        float c = (float) Math.cos(Math.toRadians(rotationX));
+        float s = (float) Math.sin(Math.toRadians(rotationX));
+
+        float[] m = view;
+        // Column 0: R * (1, 0, 0)
+        m[0] = sx;  m[1] = ux;  m[2] = -fx; m[3] = 0.0f;
+        // Column 1: R * (0, c, s)
+        m[4] = sy * c + sz * s;  m[5] = uy * c + uz * s;  m[6] = -fy * c - fz * s;  m[7] = 0.0f;
+        // Column 2: R * (0, -s, c)
+        m[8] = -sy * s + sz * c; m[9] = -uy * s + uz * c; m[10] = fy * s - fz * c;  m[11] = 0.0f;
+        // Column 3: R * t
+        m[12] = sx * tx + sy * ty + sz * tz;
+        m[13] = ux * tx + uy * ty + uz * tz;
+        m[14] = -(fx * tx + fy * ty + fz * tz);
+        m[15] = 1.0f;
+
+        // The rotation is orthonormal, so the eye is -rotation^T * translation
+        eyeX = -(m[0] * m[12] + m[1] * m[13] + m[2] * m[14]);
+        eyeY = -(m[4] * m[12] + m[5] * m[13] + m[6] * m[14]);
+        eyeZ = -(m[8] * m[12] + m[9] * m[13] + m[10] * m[14]);
+    }
+
+    static void multiply(float[] a, float[] b, float[] out) {
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0.0f;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[k * 4 + row] * b[col * 4 + k];
+                }
+                out[col * 4 + row] = sum;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        boolean failed = false;
+
+        // Against the old construction: gluPerspective and gluLookAt as separate matrices,
+        // then glTranslatef and glRotatef, multiplied out the way the GL stack does
+        CameraMatrices camera = new CameraMatrices();
+        camera.setViewport(1200, 900);
+        java.util.Random random = new java.util.Random(7);
+        float worst = 0.0f;
+        for (int i = 0; i < 1000; i++) {
+            float distance = 0.5f + random.nextFloat() * 9.5f, height = random.nextFloat() * 2 - 1;
+            float yaw = random.nextFloat() * 720 - 360, tilt = random.nextFloat() * 180 - 90;
+            float panX = random.nextFloat() - 0.5f, panY = random.nextFloat() - 0.5f;
+            camera.setOrbit(distance, height, yaw, tilt);
+            camera.setPan(panX, panY);
+            camera.update();
+            float[] expected = reference(1200, 900, distance, height, yaw, tilt, panX, panY);
+            for (int k = 0; k < 16; k++) {
+                worst = Math.max(worst, Math.abs(expected[k] - camera.combined[k]) / Math.max(1.0f, Math.abs(expected[k])));
+            }
+        }
+        System.out.printf("combined matrix vs old construction: max relative error %.2g%n", worst);
+        failed |= worst > 1e-5f;
+
+        // Steady state: inputs move every frame, as while dragging, and are read back the
+        // way the render loop does
+        BufferPoolMXBean direct = null;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                direct = pool;
+            }
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int frames = 1_000_000;
+        float sink = 0.0f;
+        for (int pass = 0; pass < 2; pass++) {  // the first pass warms up the JIT
+            long buffers = direct.getCount();
+            long bytes = direct.getMemoryUsed();
+            long heap = threads.getCurrentThreadAllocatedBytes();
+            long rebuilds = camera.rebuilds();
+            for (int frame = 0; frame < frames; frame++) {
+                camera.setOrbit(2.0f + (frame & 63) * 0.01f, 0.4f, frame * 0.1f, 20.0f);
+                camera.setPan((frame & 1) * 0.01f, 0.0f);
+                if (frame % 4 == 0) {
+                    camera.setViewport(1200, 900);  // unchanged, so no rebuild
+                }
+                camera.update();
+                sink += camera.combinedBuffer.get(15) + camera.combined[0];
+            }
+            if (pass == 1) {
+                long newBuffers = direct.getCount() - buffers;
+                long newBytes = direct.getMemoryUsed() - bytes;
+                double heapPerFrame = (threads.getCurrentThreadAllocatedBytes() - heap) / (double) frames;
+                System.out.printf("%,d frames, %,d rebuilds: %d direct buffers and %d bytes of direct memory allocated, "
+                    + "%.3f heap bytes per frame%n", frames, camera.rebuilds() - rebuilds, newBuffers, newBytes, heapPerFrame);
+                failed |= newBuffers != 0 || newBytes != 0 || heapPerFrame > 0.01;
+            }
+        }
+        if (sink == 42.0f) {
+            System.out.println();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static float[] reference(int width, int height, float distance, float cameraHeight, float yaw, float tilt,
+                                     float panX, float panY) {
+        float f = 1.0f / (float) Math.tan(Math.toRadians(65.0f) / 2.0f);
+        float aspect = (float) width / (float) height;
+        float[] p = {f / aspect, 0, 0, 0, 0, f, 0, 0, 0, 0, (100.0f + 0.1f) / (0.1f - 100.0f), -1,
+            0, 0, (2 * 100.0f * 0.1f) / (0.1f - 100.0f), 0};
+
+        float eyeX = (float) (distance * Math.sin(Math.toRadians(yaw)));
+        float eyeZ = (float) (distance * Math.cos(Math.toRadians(yaw)));
+        float[] forward = {-eyeX, -cameraHeight, -eyeZ};
+        float len = (float) Math.sqrt(forward[0] * forward[0] + forward[1] * forward[1] + forward[2] * forward[2]);
+        forward[0] /= len; forward[1] /= len; forward[2] /= len;
+        float[] up = {0, 1, 0};
+        float[] side = {forward[1] * up[2] - forward[2] * up[1], forward[2] * up[0] - forward[0] * up[2],
+            forward[0] * up[1] - forward[1] * up[0]};
+        len = (float) Math.sqrt(side[0] * side[0] + side[1] * side[1] + side[2] * side[2]);
+        side[0] /= len; side[1] /= len; side[2] /= len;
+        up[0] = side[1] * forward[2] - side[2] * forward[1];
+        up[1] = side[2] * forward[0] - side[0] * forward[2];
+        up[2] = side[0] * forward[1] - side[1] * forward[0];
+        float[] look = {side[0], up[0], -forward[0], 0, side[1], up[1], -forward[1], 0,
+            side[2], up[2], -forward[2], 0, 0, 0, 0, 1};
+        float[] eye = translation(-eyeX, -cameraHeight, -eyeZ);
+        float[] pan = translation(panX, panY, 0);
+        float c = (float) Math.cos(Math.toRadians(tilt)), s = (float) Math.sin(Math.toRadians(tilt));
+        float[] rotate = {1, 0, 0, 0, 0, c, s, 0, 0, -s, c, 0, 0, 0, 0, 1};
+
+        float[] m = p.clone();
+        for (float[] next : new float[][] {look, eye, pan, rotate}) {
+            float[] product = new float[16];
+            multiply(m, next, product);
+            m = product;
+        }
+        return m;
+    }
+
+    private static float[] translation(float x, float y, float z) {
+        return new float[] {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, x, y, z, 1};
+    }
+}
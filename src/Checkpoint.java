@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.lwjgl.system.MemoryUtil.*;
+
+// Complete simulation state at one step: every particle column including trail history,
+// the per-chunk random streams, the warp mode, the dynamics, the step count and the
+// camera. Restoring it into a store and engine of the same size, thread count and
+// dynamics continues the run bit for bit. Under other dynamics the run continues from
+// the saved particles with the current settings: gravity starts its orbits from a spiral
+// checkpoint's polar state, and the spiral reads the polar columns gravity keeps.
+//
+// capture() copies the live store block to block into a private store, so the copy can
+// be written on another thread while the simulation keeps going. The copy is one
+// synchronous memcpy on the simulation thread, so stepping stalls for it: about 0.1 s
+// per million particles, mostly faulting in the new block (which is not zeroed first).
+// Until the file is written the particles take twice their memory. The copy cannot be
+// spread over several steps, since every step writes every particle and slices would
+// mix steps; instead capture, like read, refuses up front when the system lacks room
+// for the copy plus MEMORY_RESERVE rather than failing the allocation mid-run.
+//
+// File format (.bhck), native byte order:
+//   header    HEADER_BYTES: magic, version, byte order mark, capacity, trail length,
+//             warp mode, radii, step, data bytes, stream count, camera value count,
+//             gravity flag, disk mass, theta
+//   streams   (seed, gamma) longs per chunk
+//   camera    floats
+//   data      the ParticleStore block, written straight from native memory
+public class Checkpoint implements AutoCloseable {
+
+    static final String EXTENSION = ".bhck";
+    static final int MAGIC = 0x4248_434B; // "BHCK"
+    static final int VERSION = 3;
+    static final int BYTE_ORDER_MARK = 0x0102_0304;
+    static final int HEADER_BYTES = 80;
+    // Far more than the window's camera state; only bounds what a corrupt header can ask for
+    static final int MAX_CAMERA_VALUES = 1024;
+
+    // Largest single FileChannel transfer
+    private static final int IO_CHUNK = 64 << 20;
+    // Memory left to everything else after a checkpoint's copy of the particles
+    static final long MEMORY_RESERVE = 256L << 20;
+
+    final ParticleStore particles;
+    final TrailWarp.Mode warpMode;
+    final long step;
+    final long[] randomState;
+    final float[] camera;
+    final boolean gravity;  // written under GravityIntegrator dynamics
+    final float diskMass;
+    final float theta;
+
+    Checkpoint(ParticleStore particles, TrailWarp.Mode warpMode, long step, long[] randomState, float[] camera,
+               boolean gravity, float diskMass, float theta) {
+        this.particles = particles;
+        this.warpMode = warpMode;
+        this.step = step;
+        this.randomState = randomState;
+        this.camera = camera;
+        this.gravity = gravity;
+        this.diskMass = diskMass;
+        this.theta = theta;
+    }
+
+    // Only while no step is running, i.e. on the thread that drives the engine
+    static Checkpoint capture(ParticleStore store, ParticleUpdateEngine engine, long step, float[] camera) {
+        String shortfall = memoryShortfall(store.bytes);
+        if (shortfall != null) {
+            throw new IllegalStateException("Checkpoint " + shortfall);
+        }
+        ParticleStore copy = new ParticleStore(store.capacity, store.blackHoleRadius, store.eventHorizonRadius, false);
+        memCopy(store.address(), copy.address(), store.bytes);
+        GravityIntegrator gravity = engine.gravity();
+        return new Checkpoint(copy, store.warpMode, step, engine.randomState(), camera.clone(), gravity != null,
+            gravity != null ? gravity.diskMass : 0.0f, gravity != null ? gravity.tree.theta : 0.0f);
+    }
+
+    // Null if bytes plus MEMORY_RESERVE fit in the memory the system reports available,
+    // otherwise a description of both. Linux's MemAvailable counts reclaimable page
+    // cache; elsewhere the JDK's free physical memory is the best estimate.
+    static String memoryShortfall(long bytes) {
+        long available = -1;
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/meminfo"))) {
+                if (line.startsWith("MemAvailable:")) {
+                    available = Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux, or a format we do not know
+        }
+        if (available < 0 && ManagementFactory.getOperatingSystemMXBean()
+                instanceof com.sun.management.OperatingSystemMXBean os) {
+            available = os.getFreeMemorySize();
+        }
+        if (available < 0 || bytes + MEMORY_RESERVE <= available) {
+            return null;
+        }
+        return String.format("needs %,d MB for its copy of the particles plus %,d MB to spare, but only %,d MB"
+            + " of memory is available", bytes >> 20, MEMORY_RESERVE >> 20, available >> 20);
+    }
+
+    String describeDynamics() {
+        return gravity ? String.format("gravity, disk mass %.4f, theta %.2f", diskMass, theta) : "spiral";
+    }
+
+    // Throws if this checkpoint cannot be restored into the given store and engine
+    void checkCompatible(ParticleStore store, ParticleUpdateEngine engine) {
+        if (store.capacity != particles.capacity || store.blackHoleRadius != particles.blackHoleRadius
+                || store.eventHorizonRadius != particles.eventHorizonRadius) {
+            throw new IllegalArgumentException("Checkpoint holds " + particles.capacity
+                + " particles for a different simulation than the current " + store.capacity);
+        }
+        if (engine.chunkCount() * 2 != randomState.length) {
+            throw new IllegalArgumentException("Checkpoint has " + randomState.length / 2 + " random streams, engine has "
+                + engine.chunkCount() + " chunks; use the thread count the checkpoint was written with");
+        }
+    }
+
+    // Same restriction as capture
+    void restoreInto(ParticleStore store, ParticleUpdateEngine engine) {
+        checkCompatible(store, engine);
+        engine.restoreRandomState(randomState);
+        memCopy(particles.address(), store.address(), store.bytes);
+        store.warpMode = warpMode;
+        // A spiral run leaves the Cartesian columns empty
+        if (engine.gravity() != null && !gravity) {
+            engine.gravity().initialize(store);
+        }
+    }
+
+    @Override
+    public void close() {
+        particles.close();
+    }
+
+    void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES + randomState.length * Long.BYTES
+                + camera.length * Float.BYTES).order(ByteOrder.nativeOrder());
+            header.putInt(MAGIC).putInt(VERSION).putInt(BYTE_ORDER_MARK).putInt(particles.capacity);
+            header.putInt(ParticleStore.TRAIL_LENGTH).putInt(warpMode.ordinal());
+            header.putFloat(particles.blackHoleRadius).putFloat(particles.eventHorizonRadius);
+            header.putLong(step).putLong(particles.bytes);
+            header.putInt(randomState.length / 2).putInt(camera.length);
+            header.putInt(gravity ? 1 : 0).putFloat(diskMass).putFloat(theta);
+            header.position(HEADER_BYTES);
+            for (long value : randomState) {
+                header.putLong(value);
+            }
+            for (float value : camera) {
+                header.putFloat(value);
+            }
+            header.flip();
+            writeFully(out, header);
+
+            long address = particles.address();
+            for (long offset = 0; offset < particles.bytes; offset += IO_CHUNK) {
+                writeFully(out, memByteBuffer(address + offset, (int) Math.min(IO_CHUNK, particles.bytes - offset)));
+            }
+            // On disk before the rename, so a crash cannot leave a complete name on partial data
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    static Checkpoint read(Path path) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            readFully(in, header, path);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a checkpoint");
+            }
+            int version = header.getInt();
+            if (version != VERSION || header.getInt() != BYTE_ORDER_MARK) {
+                throw new IOException(path + " has version " + version + " or a foreign byte order; expected " + VERSION);
+            }
+            int capacity = header.getInt();
+            if (header.getInt() != ParticleStore.TRAIL_LENGTH) {
+                throw new IOException(path + " was written with a different trail length");
+            }
+            int mode = header.getInt();
+            float blackHoleRadius = header.getFloat();
+            float eventHorizonRadius = header.getFloat();
+            long step = header.getLong();
+            long bytes = header.getLong();
+            int streams = header.getInt();
+            int cameraValues = header.getInt();
+            int gravity = header.getInt();
+            float diskMass = header.getFloat();
+            float theta = header.getFloat();
+
+            // Checked before anything is allocated from these values
+            if (capacity <= 0) {
+                throw new IOException(path + " has an invalid particle count " + capacity);
+            }
+            if (mode < 0 || mode >= TrailWarp.Mode.values().length) {
+                throw new IOException(path + " has an unknown warp mode " + mode);
+            }
+            if (!(blackHoleRadius > 0) || !(eventHorizonRadius > 0)
+                    || Float.isInfinite(blackHoleRadius) || Float.isInfinite(eventHorizonRadius)) {
+                throw new IOException(path + " has invalid radii " + blackHoleRadius + ", " + eventHorizonRadius);
+            }
+            if ((gravity != 0 && gravity != 1) || !(diskMass >= 0) || !(theta >= 0)
+                    || Float.isInfinite(diskMass) || Float.isInfinite(theta)) {
+                throw new IOException(path + " has invalid dynamics: gravity " + gravity + ", disk mass " + diskMass
+                    + ", theta " + theta);
+            }
+            if (step < 0) {
+                throw new IOException(path + " has a negative step " + step);
+            }
+            if (streams <= 0 || streams > capacity || cameraValues < 0 || cameraValues > MAX_CAMERA_VALUES) {
+                throw new IOException(path + " has " + streams + " random streams and " + cameraValues + " camera values");
+            }
+            long extraBytes = (long) streams * 2 * Long.BYTES + (long) cameraValues * Float.BYTES;
+            if (bytes <= 0 || extraBytes > Integer.MAX_VALUE || HEADER_BYTES + extraBytes + bytes != in.size()) {
+                throw new IOException(path + " is " + in.size() + " bytes, its header describes "
+                    + (HEADER_BYTES + extraBytes + bytes) + "; it is truncated or corrupt");
+            }
+            TrailWarp.Mode warpMode = TrailWarp.Mode.values()[mode];
+
+            ByteBuffer extra = ByteBuffer.allocateDirect((int) extraBytes).order(ByteOrder.nativeOrder());
+            in.position(HEADER_BYTES);
+            readFully(in, extra, path);
+            extra.flip();
+            long[] randomState = new long[streams * 2];
+            for (int i = 0; i < randomState.length; i++) {
+                randomState[i] = extra.getLong();
+            }
+            float[] camera = new float[cameraValues];
+            for (int i = 0; i < camera.length; i++) {
+                camera[i] = extra.getFloat();
+            }
+
+            String shortfall = memoryShortfall(bytes);
+            if (shortfall != null) {
+                throw new IOException(path + " " + shortfall);
+            }
+            ParticleStore particles = new ParticleStore(capacity, blackHoleRadius, eventHorizonRadius, false);
+            try {
+                if (particles.bytes != bytes) {
+                    throw new IOException(path + " has a particle layout this version cannot read");
+                }
+                long address = particles.address();
+                for (long offset = 0; offset < bytes; offset += IO_CHUNK) {
+                    readFully(in, memByteBuffer(address + offset, (int) Math.min(IO_CHUNK, bytes - offset)), path);
+                }
+            } catch (IOException | RuntimeException e) {
+                particles.close();
+                throw e;
+            }
+            return new Checkpoint(particles, warpMode, step, randomState, camera, gravity == 1, diskMass, theta);
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, Path path) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new IOException(path + " is truncated");
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+// Triangle mesh held in direct buffers, ready for upload: packed positions, one smooth
+// normal per vertex and triangle indices.
+class CompiledMesh {
+    final FloatBuffer positions;
+    final FloatBuffer normals;
+    final IntBuffer indices;
+    final int vertexCount;
+    final int indexCount;
+
+    CompiledMesh(FloatBuffer positions, FloatBuffer normals, IntBuffer indices, int vertexCount, int indexCount) {
+        this.positions = positions;
+        this.normals = normals;
+        this.indices = indices;
+        this.vertexCount = vertexCount;
+        this.indexCount = indexCount;
+    }
+
+    // Fan-triangulates every polygon of the scene and computes smooth normals
+    static CompiledMesh fromScene(Scene scene) {
+        int triangles = 0;
+        for (int f = 0; f < scene.faceCount; f++) {
+            triangles += Math.max(0, scene.faceStarts[f + 1] - scene.faceStarts[f] - 2);
+        }
+        int[] indices = new int[triangles * 3];
+        int n = 0;
+        for (int f = 0; f < scene.faceCount; f++) {
+            int start = scene.faceStarts[f];
+            for (int k = start + 2; k < scene.faceStarts[f + 1]; k++) {
+                indices[n++] = scene.faceIndices[start];
+                indices[n++] = scene.faceIndices[k - 1];
+                indices[n++] = scene.faceIndices[k];
+            }
+        }
+
+        float[] vertices = java.util.Arrays.copyOf(scene.vertices, scene.vertexCount * 3);
+        float[] normals = smoothNormals(vertices, indices);
+        return new CompiledMesh(
+            ByteBuffer.allocateDirect(vertices.length * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer().put(vertices).flip(),
+            ByteBuffer.allocateDirect(normals.length * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer().put(normals).flip(),
+            ByteBuffer.allocateDirect(indices.length * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer().put(indices).flip(),
+            scene.vertexCount, indices.length);
+    }
+
+    // Area-weighted vertex normals. Vertices that only touch degenerate triangles (the
+    // collapsed poles of a UV sphere) fall back to their direction from the origin.
+    static float[] smoothNormals(float[] v, int[] indices) {
+        float[] normals = new float[v.length];
+        for (int t = 0; t + 2 < indices.length; t += 3) {
+            int i0 = indices[t] * 3, i1 = indices[t + 1] * 3, i2 = indices[t + 2] * 3;
+            float e1x = v[i1] - v[i0], e1y = v[i1 + 1] - v[i0 + 1], e1z = v[i1 + 2] - v[i0 + 2];
+            float e2x = v[i2] - v[i0], e2y = v[i2 + 1] - v[i0 + 1], e2z = v[i2 + 2] - v[i0 + 2];
+            float nx = e1y * e2z - e1z * e2y;
+            float ny = e1z * e2x - e1x * e2z;
+            float nz = e1x * e2y - e1y * e2x;
+            accumulate(normals, i0, nx, ny, nz);
+            accumulate(normals, i1, nx, ny, nz);
+            accumulate(normals, i2, nx, ny, nz);
+        }
+        for (int i = 0; i < normals.length; i += 3) {
+            float len = (float) Math.sqrt(normals[i] * normals[i] + normals[i + 1] * normals[i + 1] + normals[i + 2] * normals[i + 2]);
+            if (len == 0) {
+                normals[i] = v[i];
+                normals[i + 1] = v[i + 1];
+                normals[i + 2] = v[i + 2];
+                len = (float) Math.sqrt(v[i] * v[i] + v[i + 1] * v[i + 1] + v[i + 2] * v[i + 2]);
+                if (len == 0) {
+                    normals[i + 1] = len = 1;
+                }
+            }
+            normals[i] /= len;
+            normals[i + 1] /= len;
+            normals[i + 2] /= len;
+        }
+        return normals;
+    }
+
+    private static void accumulate(float[] normals, int i, float nx, float ny, float nz) {
+        normals[i] += nx;
+        normals[i + 1] += ny;
+        normals[i + 2] += nz;
+    }
+}
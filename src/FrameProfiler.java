@@ -0,0 +1,210 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.remotery.Remotery;
+
+// Per-phase frame timing. Each phase records into its own LatencyHistogram and each
+// phase is only ever timed from one thread, so recording needs no synchronisation and
+// allocates nothing. Counters hold per-frame values such as particle counts and the
+// allocation rate of every registered thread.
+//
+// Results are written as CSV and JSON every dump interval and on close when
+// -Dbh.profile=<directory> is set. -Dbh.remotery=true additionally streams the phases
+// to the Remotery profiler bundled in lib (view them with Remotery's vis/index.html).
+public class FrameProfiler {
+
+    enum Phase {
+        SIMULATION_STEP,   // simulation thread: one engine.update
+        SNAPSHOT_PUBLISH,  // simulation thread: copy into the triple buffer
+        TRAIL_BUILD,       // render thread: pack particles and trails into vertex streams
+        PARTICLE_DRAW,
+        GLOW,              // event horizon wire spheres
+        RINGS,             // lensing rings and photon ring
+        CORE_MESH,
+        BUFFER_SWAP,
+        FRAME
+    }
+
+    enum Counter {
+        PARTICLES_DRAWN,
+        PARTICLES_CULLED,
+        CORE_TRIANGLES,
+        ACTIVE_PARTICLES,  // not parked by the quality governor
+        QUALITY_LEVEL,     // 0 is full quality
+        RENDER_ALLOC_BYTES_PER_SEC,
+        SIMULATION_ALLOC_BYTES_PER_SEC
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    private final long[] counters = new long[Counter.values().length];
+
+    private final Path dumpDirectory;
+    private final long dumpIntervalNanos;
+    private long lastDump = System.nanoTime();
+
+    private long renderThreadId = -1;
+    private long simulationThreadId = -1;
+    private long lastRenderAllocated;
+    private long lastSimulationAllocated;
+    private long lastAllocationSample = System.nanoTime();
+
+    private final boolean remotery;
+    private long remoteryInstance;
+    private final ByteBuffer[] remoteryNames = new ByteBuffer[Phase.values().length];
+    private final IntBuffer[] remoteryHashes = new IntBuffer[Phase.values().length];
+
+    public FrameProfiler() {
+        this(System.getProperty("bh.profile"), Boolean.getBoolean("bh.remotery"), 10);
+    }
+
+    public FrameProfiler(String dumpDirectory, boolean remotery, int dumpIntervalSeconds) {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        this.dumpDirectory = dumpDirectory != null ? Paths.get(dumpDirectory) : null;
+        this.dumpIntervalNanos = dumpIntervalSeconds * 1_000_000_000L;
+        this.remotery = remotery;
+    }
+
+    // Must be called on the render thread before the first frame
+    public void start() {
+        renderThreadId = Thread.currentThread().getId();
+        lastRenderAllocated = THREADS.getThreadAllocatedBytes(renderThreadId);
+
+        if (remotery) {
+            PointerBuffer instance = BufferUtils.createPointerBuffer(1);
+            if (Remotery.rmt_CreateGlobalInstance(instance) == Remotery.RMT_ERROR_NONE) {
+                remoteryInstance = instance.get(0);
+                for (Phase phase : Phase.values()) {
+                    remoteryNames[phase.ordinal()] = MemoryUtil.memUTF8(phase.name());
+                    remoteryHashes[phase.ordinal()] = BufferUtils.createIntBuffer(1);
+                }
+            } else {
+                System.err.println("Remotery could not be started; profiling without it");
+            }
+        }
+    }
+
+    public void registerSimulationThread(Thread thread) {
+        simulationThreadId = thread.getId();
+        lastSimulationAllocated = THREADS.getThreadAllocatedBytes(simulationThreadId);
+    }
+
+    public long begin(Phase phase) {
+        if (remoteryInstance != 0) {
+            Remotery.rmt_BeginCPUSample(remoteryNames[phase.ordinal()], 0, remoteryHashes[phase.ordinal()]);
+        }
+        return System.nanoTime();
+    }
+
+    public void end(Phase phase, long startNanos) {
+        histograms[phase.ordinal()].record(System.nanoTime() - startNanos);
+        if (remoteryInstance != 0) {
+            Remotery.rmt_EndCPUSample();
+        }
+    }
+
+    public void set(Counter counter, long value) {
+        counters[counter.ordinal()] = value;
+    }
+
+    public LatencyHistogram histogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    // Render thread, once per frame: samples allocation rates and dumps when due
+    public void endFrame() {
+        long now = System.nanoTime();
+        long elapsed = now - lastAllocationSample;
+        if (elapsed >= 1_000_000_000L) {
+            long render = THREADS.getThreadAllocatedBytes(renderThreadId);
+            set(Counter.RENDER_ALLOC_BYTES_PER_SEC, (render - lastRenderAllocated) * 1_000_000_000L / elapsed);
+            lastRenderAllocated = render;
+            if (simulationThreadId != -1) {
+                long simulation = THREADS.getThreadAllocatedBytes(simulationThreadId);
+                if (simulation >= 0) {
+                    set(Counter.SIMULATION_ALLOC_BYTES_PER_SEC, (simulation - lastSimulationAllocated) * 1_000_000_000L / elapsed);
+                    lastSimulationAllocated = simulation;
+                }
+            }
+            lastAllocationSample = now;
+        }
+
+        if (dumpDirectory != null && now - lastDump >= dumpIntervalNanos) {
+            lastDump = now;
+            dump();
+        }
+    }
+
+    public void close() {
+        if (dumpDirectory != null) {
+            dump();
+        }
+        if (remoteryInstance != 0) {
+            Remotery.rmt_DestroyGlobalInstance(remoteryInstance);
+            remoteryInstance = 0;
+            for (ByteBuffer name : remoteryNames) {
+                MemoryUtil.memFree(name);
+            }
+        }
+    }
+
+    private void dump() {
+        try {
+            Files.createDirectories(dumpDirectory);
+            writeCsv(dumpDirectory.resolve("frame-profile.csv"));
+            writeJson(dumpDirectory.resolve("frame-profile.json"));
+        } catch (IOException e) {
+            System.err.println("Could not write frame profile: " + e.getMessage());
+        }
+    }
+
+    void writeCsv(Path path) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path.toFile()))) {
+            writer.write("phase,count,mean_us,p50_us,p99_us,p999_us,max_us\n");
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram h = histograms[phase.ordinal()];
+                writer.write(String.format(Locale.ROOT, "%s,%d,%.2f,%.2f,%.2f,%.2f,%.2f%n", phase, h.count(),
+                    h.mean() / 1e3, h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3,
+                    h.percentile(0.999) / 1e3, h.max() / 1e3));
+            }
+            for (Counter counter : Counter.values()) {
+                writer.write(counter + "," + counters[counter.ordinal()] + ",,,,,\n");
+            }
+        }
+    }
+
+    void writeJson(Path path) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path.toFile()))) {
+            writer.write("{\n  \"phases\": {\n");
+            Phase[] phases = Phase.values();
+            for (int i = 0; i < phases.length; i++) {
+                LatencyHistogram h = histograms[i];
+                writer.write(String.format(Locale.ROOT,
+                    "    \"%s\": {\"count\": %d, \"mean_ns\": %.0f, \"p50_ns\": %d, \"p99_ns\": %d, \"p999_ns\": %d, \"max_ns\": %d}%s%n",
+                    phases[i], h.count(), h.mean(), h.percentile(0.5), h.percentile(0.99), h.percentile(0.999), h.max(),
+                    i + 1 < phases.length ? "," : ""));
+            }
+            writer.write("  },\n  \"counters\": {\n");
+            Counter[] all = Counter.values();
+            for (int i = 0; i < all.length; i++) {
+                writer.write("    \"" + all[i] + "\": " + counters[i] + (i + 1 < all.length ? "," : "") + "\n");
+            }
+            writer.write("  }\n}\n");
+        }
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.lwjgl.stb.STBImageWrite;
+import org.lwjgl.util.lz4.LZ4;
+import org.lwjgl.util.zstd.Zstd;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+// Records frames without stalling the render thread. Frames are drawn into an
+// offscreen framebuffer and glReadPixels goes into a ring of PBO_COUNT pixel buffer
+// objects, so the copy runs asynchronously on the GPU. A PBO is only mapped again
+// PBO_COUNT - 1 frames later, when its transfer has long finished. The mapped pixels
+// are copied into a pooled buffer and compressed and written by a background encoder
+// pool. When the encoders fall behind, capture() waits for a free buffer instead of
+// dropping frames.
+//
+// Each frame is one file, frame-000000.lz4 or .zst: a HEADER_BYTES little-endian header
+// (magic, version, codec, width, height, frame, raw size, compressed size) followed by
+// the compressed RGBA8 pixels, bottom row first as GL returns them.
+//   java FrameRecorder <frame file> <out.png> decodes one frame for inspection.
+public class FrameRecorder implements AutoCloseable {
+
+    enum Codec {
+        LZ4("lz4"),
+        ZSTD("zst");
+
+        final String extension;
+
+        Codec(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    static final int MAGIC = 0x52464842; // "BHFR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int PBO_COUNT = 3;
+    static final int POOLED_FRAMES = 8;
+    static final int ZSTD_LEVEL = 3;
+
+    final int width;
+    final int height;
+    final Codec codec;
+    final Path directory;
+    private final int frameBytes;
+
+    private final int framebuffer;
+    private final int colorBuffer;
+    private final int depthBuffer;
+    private final int[] pbos = new int[PBO_COUNT];
+    private final long[] pboFrame = new long[PBO_COUNT]; // frame waiting in each PBO, -1 when empty
+    private long frameIndex;
+
+    private final ExecutorService encoders;
+    private final ArrayBlockingQueue<ByteBuffer> freeFrames = new ArrayBlockingQueue<>(POOLED_FRAMES);
+    private final ConcurrentLinkedQueue<ByteBuffer> allocations = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ByteBuffer> compressBuffer;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong framesWritten = new AtomicLong();
+    private boolean closed;
+
+    // Must be called on the thread that owns the GL context
+    public FrameRecorder(int width, int height, Codec codec, String directory, int encoderThreads) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.codec = codec;
+        this.directory = Paths.get(directory);
+        this.frameBytes = width * height * 4;
+        Files.createDirectories(this.directory);
+
+        framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        colorBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, colorBuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, width, height);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colorBuffer);
+        depthBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        if (status != GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("Recording framebuffer incomplete: 0x" + Integer.toHexString(status));
+        }
+
+        for (int i = 0; i < PBO_COUNT; i++) {
+            pbos[i] = glGenBuffers();
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[i]);
+            glBufferData(GL_PIXEL_PACK_BUFFER, frameBytes, GL_STREAM_READ);
+            pboFrame[i] = -1;
+        }
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        for (int i = 0; i < POOLED_FRAMES; i++) {
+            ByteBuffer frame = memAlloc(frameBytes);
+            allocations.add(frame);
+            freeFrames.add(frame);
+        }
+        long bound = codec == Codec.LZ4 ? LZ4.LZ4_compressBound(frameBytes) : Zstd.ZSTD_compressBound(frameBytes);
+        compressBuffer = ThreadLocal.withInitial(() -> {
+            ByteBuffer buffer = memAlloc(HEADER_BYTES + (int) bound);
+            allocations.add(buffer);
+            return buffer;
+        });
+        encoders = Executors.newFixedThreadPool(Math.max(1, encoderThreads), runnable -> {
+            Thread thread = new Thread(runnable, "frame-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Directs rendering into the offscreen framebuffer
+    public void begin() {
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+    }
+
+    // Queues a readback of the frame just drawn and hands the oldest finished one to the encoders
+    public void capture() {
+        checkFailure();
+        int slot = (int) (frameIndex % PBO_COUNT);
+        if (pboFrame[slot] >= 0) {
+            collect(slot);
+        }
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[slot]);
+        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        pboFrame[slot] = frameIndex++;
+    }
+
+    private void collect(int slot) {
+        ByteBuffer frame;
+        try {
+            frame = freeFrames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a frame buffer", e);
+        }
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[slot]);
+        ByteBuffer mapped = glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY, frameBytes, null);
+        if (mapped == null) {
+            freeFrames.add(frame);
+            throw new IllegalStateException("Could not map pixel buffer");
+        }
+        memCopy(memAddress(mapped), memAddress(frame), frameBytes);
+        glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        long index = pboFrame[slot];
+        pboFrame[slot] = -1;
+        encoders.execute(() -> encode(index, frame));
+    }
+
+    private void encode(long index, ByteBuffer frame) {
+        try {
+            ByteBuffer out = compressBuffer.get();
+            ByteBuffer body = memSlice(out, HEADER_BYTES, out.capacity() - HEADER_BYTES);
+            long size;
+            if (codec == Codec.LZ4) {
+                size = LZ4.LZ4_compress_default(frame, body);
+                if (size <= 0) {
+                    throw new IOException("LZ4 compression failed for frame " + index);
+                }
+            } else {
+                size = Zstd.ZSTD_compress(body, frame, ZSTD_LEVEL);
+                if (Zstd.ZSTD_isError(size)) {
+                    throw new IOException("zstd compression failed for frame " + index + ": " + Zstd.ZSTD_getErrorName(size));
+                }
+            }
+
+            ByteBuffer header = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            header.clear();
+            header.putInt(MAGIC).putInt(VERSION).putInt(codec.ordinal()).putInt(width).putInt(height)
+                .putInt((int) index).putInt(frameBytes).putInt((int) size);
+            out.clear().limit(HEADER_BYTES + (int) size);
+
+            Path path = directory.resolve(String.format("frame-%06d.%s", index, codec.extension));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+            compressedBytes.addAndGet(HEADER_BYTES + size);
+            framesWritten.incrementAndGet();
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            freeFrames.add(frame);
+        }
+    }
+
+    private void checkFailure() {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new IllegalStateException("Frame encoding failed", t);
+        }
+    }
+
+    // Reads back the frames still in flight, waits for the encoders and releases everything.
+    // Encoders still running after a minute may be writing into the pooled buffers, so
+    // those are left allocated and reported instead of freed.
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (long next = frameIndex - PBO_COUNT; next < frameIndex; next++) {
+                if (next >= 0 && pboFrame[(int) (next % PBO_COUNT)] == next) {
+                    collect((int) (next % PBO_COUNT));
+                }
+            }
+            encoders.shutdown();
+            encoders.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+            glDeleteFramebuffers(framebuffer);
+            glDeleteRenderbuffers(colorBuffer);
+            glDeleteRenderbuffers(depthBuffer);
+            glDeleteBuffers(pbos);
+            if (encoders.isTerminated()) {
+                for (ByteBuffer buffer : allocations) {
+                    memFree(buffer);
+                }
+            } else {
+                long bytes = 0;
+                for (ByteBuffer buffer : allocations) {
+                    bytes += buffer.capacity();
+                }
+                System.err.printf("Frame encoders did not finish in time; leaking %d native buffers (%.1f MB)%n",
+                    allocations.size(), bytes / 1e6);
+            }
+        }
+        checkFailure();
+    }
+
+    public long framesWritten() {
+        return framesWritten.get();
+    }
+
+    public long compressedBytes() {
+        return compressedBytes.get();
+    }
+
+    public String describe() {
+        long frames = framesWritten.get();
+        double raw = (double) frames * frameBytes;
+        return String.format("%d frames %dx%d, %s, %.1f MB written (%.2fx smaller than raw)",
+            frames, width, height, codec, compressedBytes.get() / (1024.0 * 1024.0),
+            compressedBytes.get() == 0 ? 0 : raw / compressedBytes.get());
+    }
+
+    // Decodes one frame file to a PNG, flipping it to top row first
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java FrameRecorder <frame file> <out.png>");
+            System.exit(2);
+        }
+        byte[] file = Files.readAllBytes(Paths.get(args[0]));
+        ByteBuffer in = memAlloc(file.length).put(file).flip();
+        try {
+            ByteBuffer header = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (file.length < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(args[0] + " is not a recorded frame");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(args[0] + " has version " + version + "; expected " + VERSION);
+            }
+            int codecIndex = header.getInt();
+            if (codecIndex < 0 || codecIndex >= Codec.values().length) {
+                throw new IOException(args[0] + " has an unknown codec " + codecIndex);
+            }
+            Codec codec = Codec.values()[codecIndex];
+            int w = header.getInt(), h = header.getInt();
+            header.getInt();
+            int rawSize = header.getInt(), size = header.getInt();
+
+            // Checked before anything is allocated or decoded from these values
+            if (w <= 0 || h <= 0 || (long) w * h * 4 != rawSize) {
+                throw new IOException(args[0] + " has an invalid frame size " + w + "x" + h + ", " + rawSize + " bytes");
+            }
+            if (size <= 0 || (long) HEADER_BYTES + size != file.length) {
+                throw new IOException(args[0] + " is " + file.length + " bytes, its header describes "
+                    + ((long) HEADER_BYTES + size) + "; it is truncated or corrupt");
+            }
+
+            ByteBuffer body = memSlice(in, HEADER_BYTES, size);
+            ByteBuffer pixels = memAlloc(rawSize);
+            try {
+                long decoded = codec == Codec.LZ4
+                    ? LZ4.LZ4_decompress_safe(body, pixels)
+                    : Zstd.ZSTD_decompress(pixels, body);
+                if (decoded != rawSize) {
+                    throw new IOException("Could not decode " + args[0]);
+                }
+                STBImageWrite.stbi_flip_vertically_on_write(true);
+                if (!STBImageWrite.stbi_write_png(args[1], w, h, 4, pixels, w * 4)) {
+                    throw new IOException("Could not write " + args[1]);
+                }
+            } finally {
+                memFree(pixels);
+            }
+        } finally {
+            memFree(in);
+        }
+    }
+}
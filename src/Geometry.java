@@ -0,0 +1,75 @@
+// Vertex generators for the ring and sphere shapes drawn around the black hole.
+// Positions are written as packed x, y, z floats.
+public class Geometry {
+
+    // Circle in the XZ plane, one vertex per segment (drawn as a line loop)
+    public static float[] ring(float radius, int segments) {
+        float[] out = new float[segments * 3];
+        for (int j = 0; j < segments; j++) {
+            float angle = (float) (2 * Math.PI * j / segments);
+            out[j * 3] = (float) (radius * Math.cos(angle));
+            out[j * 3 + 2] = (float) (radius * Math.sin(angle));
+        }
+        return out;
+    }
+
+    // Line loops of a wire sphere: slices longitude loops of (stacks + 1) vertices,
+    // followed by stacks latitude loops of (slices + 1) vertices
+    public static float[] wireSphere(float radius, int slices, int stacks) {
+        float[] out = new float[(slices * (stacks + 1) + stacks * (slices + 1)) * 3];
+        int n = 0;
+        for (int j = 0; j < slices; j++) {
+            for (int i = 0; i <= stacks; i++) {
+                n = sphereVertex(out, n, radius, i, j, slices, stacks);
+            }
+        }
+        for (int i = 0; i < stacks; i++) {
+            for (int j = 0; j <= slices; j++) {
+                n = sphereVertex(out, n, radius, i, j, slices, stacks);
+            }
+        }
+        return out;
+    }
+
+    // Vertex grid of a solid sphere: (stacks + 1) rows of (slices + 1) vertices,
+    // triangulated by sphereIndices
+    public static float[] solidSphere(float radius, int slices, int stacks) {
+        float[] out = new float[(stacks + 1) * (slices + 1) * 3];
+        int n = 0;
+        for (int i = 0; i <= stacks; i++) {
+            for (int j = 0; j <= slices; j++) {
+                n = sphereVertex(out, n, radius, i, j, slices, stacks);
+            }
+        }
+        return out;
+    }
+
+    // Triangle indices over the solidSphere vertex grid
+    public static int[] sphereIndices(int slices, int stacks) {
+        int[] out = new int[stacks * slices * 6];
+        int n = 0;
+        for (int i = 0; i < stacks; i++) {
+            for (int j = 0; j < slices; j++) {
+                int first = i * (slices + 1) + j;
+                int second = first + slices + 1;
+                out[n++] = first;
+                out[n++] = second;
+                out[n++] = first + 1;
+                out[n++] = second;
+                out[n++] = second + 1;
+                out[n++] = first + 1;
+            }
+        }
+        return out;
+    }
+
+    private static int sphereVertex(float[] out, int n, float radius, int i, int j, int slices, int stacks) {
+        double theta = Math.PI * ((double)i / stacks - 0.5);
+        double phi = 2.0 * Math.PI * (double)j / slices;
+
+        out[n++] = (float)(Math.cos(phi) * Math.cos(theta)) * radius;
+        out[n++] = (float)Math.sin(theta) * radius;
+        out[n++] = (float)(Math.sin(phi) * Math.cos(theta)) * radius;
+        return n;
+    }
+}
@@ -0,0 +1,123 @@
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+import org.lwjgl.BufferUtils;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.glMultiDrawArrays;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+
+// Static line geometry for the rings and wire spheres, built once per distinct set of
+// parameters and kept in GPU buffers. Lookups are a linear scan over the few entries
+// with primitive comparisons, so asking for the same ring every frame costs no trig
+// and no allocation; changing a parameter just builds (and keeps) another entry.
+public class GeometryCache {
+
+    private static final int RING = 0;
+    private static final int WIRE_SPHERE = 1;
+
+    private final ArrayList<LineMesh> entries = new ArrayList<>();
+
+    public LineMesh ring(float radius, int segments) {
+        LineMesh mesh = find(RING, radius, segments, 0);
+        if (mesh == null) {
+            mesh = new LineMesh(RING, radius, segments, 0, Geometry.ring(radius, segments),
+                new int[] {0}, new int[] {segments});
+            entries.add(mesh);
+        }
+        return mesh;
+    }
+
+    public LineMesh wireSphere(float radius, int slices, int stacks) {
+        LineMesh mesh = find(WIRE_SPHERE, radius, slices, stacks);
+        if (mesh == null) {
+            // Matches the vertex order of Geometry.wireSphere: longitude loops, then latitude loops
+            int loops = slices + stacks;
+            int[] first = new int[loops];
+            int[] count = new int[loops];
+            int offset = 0;
+            for (int j = 0; j < slices; j++) {
+                first[j] = offset;
+                count[j] = stacks + 1;
+                offset += stacks + 1;
+            }
+            for (int i = 0; i < stacks; i++) {
+                first[slices + i] = offset;
+                count[slices + i] = slices + 1;
+                offset += slices + 1;
+            }
+            mesh = new LineMesh(WIRE_SPHERE, radius, slices, stacks, Geometry.wireSphere(radius, slices, stacks), first, count);
+            entries.add(mesh);
+        }
+        return mesh;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void dispose() {
+        for (LineMesh mesh : entries) {
+            mesh.dispose();
+        }
+        entries.clear();
+    }
+
+    private LineMesh find(int kind, float radius, int segments, int stacks) {
+        for (int i = 0; i < entries.size(); i++) {
+            LineMesh mesh = entries.get(i);
+            if (mesh.kind == kind && mesh.radius == radius && mesh.segments == segments && mesh.stacks == stacks) {
+                return mesh;
+            }
+        }
+        return null;
+    }
+
+    // One or more GL_LINE_LOOPs in a single static vertex buffer
+    static class LineMesh {
+        final int kind;
+        final float radius;
+        final int segments;
+        final int stacks;
+
+        private final int vao;
+        private final int vertexBuffer;
+        private final IntBuffer first;
+        private final IntBuffer count;
+
+        LineMesh(int kind, float radius, int segments, int stacks, float[] positions, int[] first, int[] count) {
+            this.kind = kind;
+            this.radius = radius;
+            this.segments = segments;
+            this.stacks = stacks;
+            this.first = BufferUtils.createIntBuffer(first.length).put(first).flip();
+            this.count = BufferUtils.createIntBuffer(count.length).put(count).flip();
+
+            vao = glGenVertexArrays();
+            glBindVertexArray(vao);
+            vertexBuffer = glGenBuffers();
+            glBindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
+            glBufferData(GL_ARRAY_BUFFER, positions, GL_STATIC_DRAW);
+            glEnableClientState(GL_VERTEX_ARRAY);
+            glVertexPointer(3, GL_FLOAT, 3 * Float.BYTES, 0L);
+            glBindVertexArray(0);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+
+        void draw() {
+            glBindVertexArray(vao);
+            if (first.limit() == 1) {
+                glDrawArrays(GL_LINE_LOOP, first.get(0), count.get(0));
+            } else {
+                glMultiDrawArrays(GL_LINE_LOOP, first, count);
+            }
+            glBindVertexArray(0);
+        }
+
+        void dispose() {
+            glDeleteVertexArrays(vao);
+            glDeleteBuffers(vertexBuffer);
+        }
+    }
+}
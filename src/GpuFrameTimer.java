@@ -0,0 +1,71 @@
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL33.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33.glGetQueryObjectui64;
+
+// GPU time of whole frames from GL_TIME_ELAPSED queries. Results arrive a few frames
+// late, so a small ring of queries is cycled and only ones whose result is already
+// available are read; the render thread never waits for the GPU. Needs OpenGL 3.3 or
+// ARB_timer_query; check supported() first.
+public class GpuFrameTimer {
+
+    private static final int QUERIES = 4;
+
+    private final int[] queries = new int[QUERIES];
+    private final boolean[] pending = new boolean[QUERIES];
+    private int next;
+    private long latestNanos = -1;
+
+    public static boolean supported() {
+        GLCapabilities caps = GL.getCapabilities();
+        return caps.OpenGL33 || caps.GL_ARB_timer_query;
+    }
+
+    public GpuFrameTimer() {
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = glGenQueries();
+        }
+    }
+
+    // Skips the frame when the oldest query is still in flight
+    public void begin() {
+        if (!pending[next]) {
+            glBeginQuery(GL_TIME_ELAPSED, queries[next]);
+        }
+    }
+
+    public void end() {
+        if (!pending[next]) {
+            glEndQuery(GL_TIME_ELAPSED);
+            pending[next] = true;
+        }
+        next = (next + 1) % QUERIES;
+        // Oldest first, so latestNanos ends on the newest finished frame
+        for (int k = 0; k < QUERIES; k++) {
+            int i = (next + k) % QUERIES;
+            if (pending[i]) {
+                collect(i);
+            }
+        }
+    }
+
+    private void collect(int i) {
+        if (glGetQueryObjecti(queries[i], GL_QUERY_RESULT_AVAILABLE) != 0) {
+            latestNanos = glGetQueryObjectui64(queries[i], GL_QUERY_RESULT);
+            pending[i] = false;
+        }
+    }
+
+    // Most recent completed frame, or -1 before the first result
+    public long latestNanos() {
+        return latestNanos;
+    }
+
+    public void dispose() {
+        for (int query : queries) {
+            glDeleteQueries(query);
+        }
+    }
+}
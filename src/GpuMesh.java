@@ -0,0 +1,61 @@
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+
+// A PreparedMesh uploaded once into a VAO with interleaved position/normal VBO and an
+// index buffer. Drawing is a single glDrawElements; the fixed-function vertex and
+// normal arrays are recorded in the VAO so the current colour and matrices still apply.
+// Meshes with several levels of detail draw one level's index range at a time.
+public class GpuMesh {
+
+    private final int vao;
+    private final int vertexBuffer;
+    private final int indexBuffer;
+    final int indexCount;
+    private final int[] lodFirst;
+
+    public GpuMesh(PreparedMesh mesh) {
+        indexCount = mesh.indexCount;
+        lodFirst = mesh.lodFirst.clone();
+
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+
+        vertexBuffer = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, vertexBuffer);
+        glBufferData(GL_ARRAY_BUFFER, mesh.vertices, GL_STATIC_DRAW);
+
+        indexBuffer = glGenBuffers();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, mesh.indices, GL_STATIC_DRAW);
+
+        int stride = PreparedMesh.BYTES_PER_VERTEX;
+        glEnableClientState(GL_VERTEX_ARRAY);
+        glVertexPointer(3, GL_FLOAT, stride, 0L);
+        glEnableClientState(GL_NORMAL_ARRAY);
+        glNormalPointer(GL_FLOAT, stride, 3L * Float.BYTES);
+
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    public void draw() {
+        draw(0);
+    }
+
+    public void draw(int lod) {
+        glBindVertexArray(vao);
+        glDrawElements(GL_TRIANGLES, lodFirst[lod + 1] - lodFirst[lod], GL_UNSIGNED_INT, (long) lodFirst[lod] * Integer.BYTES);
+        glBindVertexArray(0);
+    }
+
+    public int lodCount() {
+        return lodFirst.length - 1;
+    }
+
+    public void dispose() {
+        glDeleteVertexArrays(vao);
+        glDeleteBuffers(vertexBuffer);
+        glDeleteBuffers(indexBuffer);
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.concurrent.ForkJoinPool;
+
+// Force-based particle dynamics for ParticleUpdateEngine, replacing the parametric
+// spiral of ParticleStore.update. Particles move under the central mass with a
+// drift-kick-drift leapfrog, which is symplectic, so orbits keep their energy over
+// long runs instead of spiralling in or out numerically. Optional self-gravity
+// between disk particles is evaluated through a BarnesHutTree rebuilt every step.
+//
+// State lives in the store's posX..velZ columns; after every step distance, angle,
+// height and cos/sin are derived from it and the trail is extended, so snapshots
+// and rendering are unchanged. Particles that fall inside eventHorizonRadius, run out
+// of life or reach a position that is not finite are reseeded by ParticleStore.reset
+// onto a circular orbit.
+//
+// Units are the simulation's: lengths as blackHoleRadius, time in seconds, masses as
+// GM. java GravityIntegrator --check compares the tree against direct summation and
+// measures the leapfrog's energy drift.
+public class GravityIntegrator {
+
+    float centralMass = 0.4f;   // GM of the black hole
+    float diskMass = 0.0f;      // total GM of all particles together; 0 disables self-gravity
+    final BarnesHutTree tree = new BarnesHutTree();
+
+    private int[][] stacks = new int[0][];
+    private double[][] scratch = new double[0][];
+
+    public boolean selfGravity() {
+        return diskMass > 0.0f;
+    }
+
+    public void setTheta(float theta) {
+        tree.theta = theta;
+    }
+
+    public void setSoftening(float softening) {
+        tree.softening = softening;
+    }
+
+    // Sets every particle's Cartesian state from its current distance, angle and height
+    public void initialize(ParticleStore store) {
+        for (int i = 0; i < store.capacity; i++) {
+            initializeOrbit(store, i);
+        }
+    }
+
+    // Circular orbit in the disk plane through the particle's polar position, turning the
+    // way angle increases
+    void initializeOrbit(ParticleStore store, int i) {
+        float d = ParticleStore.getFloat(store.distance, i);
+        float c = ParticleStore.getFloat(store.cosAngle, i);
+        float s = ParticleStore.getFloat(store.sinAngle, i);
+        float speed = d > 0.0f ? (float) Math.sqrt(centralMass / d) : 0.0f;
+        ParticleStore.putFloat(store.posX, i, d * c);
+        ParticleStore.putFloat(store.posY, i, ParticleStore.getFloat(store.height, i));
+        ParticleStore.putFloat(store.posZ, i, d * s);
+        ParticleStore.putFloat(store.velX, i, -s * speed);
+        ParticleStore.putFloat(store.velY, i, 0.0f);
+        ParticleStore.putFloat(store.velZ, i, c * speed);
+    }
+
+    // Per-chunk traversal scratch, so evaluating forces does not allocate
+    void ensureChunks(int chunks) {
+        if (stacks.length < chunks) {
+            stacks = new int[chunks][BarnesHutTree.STACK_SIZE];
+            scratch = new double[chunks][3];
+        }
+    }
+
+    // First half drift: x += v * dt / 2
+    void drift(ParticleStore store, int from, int to, float halfStep) {
+        for (int i = from; i < to; i++) {
+            ParticleStore.putFloat(store.posX, i, ParticleStore.getFloat(store.posX, i) + ParticleStore.getFloat(store.velX, i) * halfStep);
+            ParticleStore.putFloat(store.posY, i, ParticleStore.getFloat(store.posY, i) + ParticleStore.getFloat(store.velY, i) * halfStep);
+            ParticleStore.putFloat(store.posZ, i, ParticleStore.getFloat(store.posZ, i) + ParticleStore.getFloat(store.velZ, i) * halfStep);
+        }
+    }
+
+    // Between the two passes, once per step
+    void buildTree(ParticleStore store, ForkJoinPool pool) {
+        if (selfGravity()) {
+            tree.build(store.posX, store.posY, store.posZ, store.capacity, diskMass / store.capacity, pool);
+        }
+    }
+
+    // Kick with the forces at the half-step positions, second half drift, then derive the
+    // render columns and reseed absorbed particles
+    void kickDrift(ParticleStore store, int chunk, int from, int to, float deltaTime, ParticleRandom random) {
+        int[] stack = stacks[chunk];
+        double[] a = scratch[chunk];
+        float halfStep = deltaTime * 0.5f;
+        boolean self = selfGravity();
+        for (int i = from; i < to; i++) {
+            float x = ParticleStore.getFloat(store.posX, i);
+            float y = ParticleStore.getFloat(store.posY, i);
+            float z = ParticleStore.getFloat(store.posZ, i);
+
+            double r2 = (double) x * x + (double) y * y + (double) z * z;
+            float life = ParticleStore.getFloat(store.life, i) - store.lifeDecay * deltaTime;
+            // A position at the centre or not finite has no defined force; treat it as absorbed
+            if (!(r2 > 0.0) || Double.isInfinite(r2)) {
+                absorb(store, i, random);
+                continue;
+            }
+            double central = -centralMass / (r2 * Math.sqrt(r2));
+            double ax = central * x, ay = central * y, az = central * z;
+            if (self) {
+                tree.acceleration(x, y, z, stack, a);
+                ax += a[0];
+                ay += a[1];
+                az += a[2];
+            }
+
+            float vx = (float) (ParticleStore.getFloat(store.velX, i) + ax * deltaTime);
+            float vy = (float) (ParticleStore.getFloat(store.velY, i) + ay * deltaTime);
+            float vz = (float) (ParticleStore.getFloat(store.velZ, i) + az * deltaTime);
+            x += vx * halfStep;
+            y += vy * halfStep;
+            z += vz * halfStep;
+            ParticleStore.putFloat(store.velX, i, vx);
+            ParticleStore.putFloat(store.velY, i, vy);
+            ParticleStore.putFloat(store.velZ, i, vz);
+            ParticleStore.putFloat(store.posX, i, x);
+            ParticleStore.putFloat(store.posY, i, y);
+            ParticleStore.putFloat(store.posZ, i, z);
+
+            float d = (float) Math.sqrt(x * x + z * z);
+            ParticleStore.putFloat(store.life, i, life);
+            float r2After = x * x + y * y + z * z;
+            if (!(r2After >= store.eventHorizonRadius * store.eventHorizonRadius) || Float.isInfinite(r2After)
+                    || life <= 0) {
+                absorb(store, i, random);
+                continue;
+            }
+
+            ParticleStore.putFloat(store.distance, i, d);
+            ParticleStore.putFloat(store.angle, i, (float) Math.atan2(z, x));
+            ParticleStore.putFloat(store.height, i, y);
+            ParticleStore.putFloat(store.cosAngle, i, x / d);
+            ParticleStore.putFloat(store.sinAngle, i, z / d);
+            store.addCurrentPositionToTrail(i);
+            // The trail's y is the visual warp; add the real height above the disk plane
+            long slot = store.trailSlot(i, 0);
+            ParticleStore.putFloat(store.trailY, slot, ParticleStore.getFloat(store.trailY, slot) + y);
+        }
+    }
+
+    private void absorb(ParticleStore store, int i, ParticleRandom random) {
+        store.reset(i, random);
+        initializeOrbit(store, i);
+    }
+
+    // Total energy per unit mass of the central-mass problem, summed over all particles
+    static double centralEnergy(ParticleStore store, float centralMass) {
+        double energy = 0;
+        for (int i = 0; i < store.capacity; i++) {
+            double x = ParticleStore.getFloat(store.posX, i), y = ParticleStore.getFloat(store.posY, i);
+            double z = ParticleStore.getFloat(store.posZ, i);
+            double vx = ParticleStore.getFloat(store.velX, i), vy = ParticleStore.getFloat(store.velY, i);
+            double vz = ParticleStore.getFloat(store.velZ, i);
+            energy += 0.5 * (vx * vx + vy * vy + vz * vz) - centralMass / Math.sqrt(x * x + y * y + z * z);
+        }
+        return energy;
+    }
+
+    // Accuracy harness: tree vs direct summation for several opening angles, and the
+    // energy drift of the integrator over many orbits. Exits with status 1 when theta = 0
+    // does not match direct summation or theta = 0.5 is worse than 1% on average.
+    public static void main(String[] args) {
+        int particles = 2000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--check" -> { }
+                case "--particles" -> particles = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        boolean failed = false;
+
+        try (ParticleStore store = new ParticleStore(particles, 0.4f, 0.6f)) {
+            GravityIntegrator gravity = new GravityIntegrator();
+            gravity.diskMass = 0.05f;
+            store.seed(0, particles, new ParticleRandom(42L));
+            gravity.initialize(store);
+            float mass = gravity.diskMass / particles;
+            float softening = gravity.tree.softening;
+
+            double[][] direct = new double[particles][3];
+            long start = System.nanoTime();
+            for (int i = 0; i < particles; i++) {
+                BarnesHutTree.directAcceleration(store.posX, store.posY, store.posZ, particles, mass, softening,
+                    ParticleStore.getFloat(store.posX, i), ParticleStore.getFloat(store.posY, i),
+                    ParticleStore.getFloat(store.posZ, i), direct[i]);
+            }
+            double directMs = (System.nanoTime() - start) / 1e6;
+            System.out.printf("direct         %d bodies, %.2f ms%n", particles, directMs);
+
+            int[] stack = new int[BarnesHutTree.STACK_SIZE];
+            double[] a = new double[3];
+            double[] errors = new double[particles];
+            for (float theta : new float[] {0.0f, 0.3f, 0.5f, 0.7f, 1.0f}) {
+                gravity.setTheta(theta);
+                start = System.nanoTime();
+                gravity.tree.build(store.posX, store.posY, store.posZ, particles, mass, null);
+                double sum = 0;
+                for (int i = 0; i < particles; i++) {
+                    gravity.tree.acceleration(ParticleStore.getFloat(store.posX, i), ParticleStore.getFloat(store.posY, i),
+                        ParticleStore.getFloat(store.posZ, i), stack, a);
+                    double[] d = direct[i];
+                    double ex = a[0] - d[0], ey = a[1] - d[1], ez = a[2] - d[2];
+                    errors[i] = Math.sqrt(ex * ex + ey * ey + ez * ez) / Math.sqrt(d[0] * d[0] + d[1] * d[1] + d[2] * d[2]);
+                    sum += errors[i];
+                }
+                double ms = (System.nanoTime() - start) / 1e6;
+                java.util.Arrays.sort(errors);
+                double mean = sum / particles;
+                System.out.printf("theta %.1f      mean %.2e  p99 %.2e  max %.2e  %d nodes, %.2f ms%n", theta, mean,
+                    errors[(int) (particles * 0.99)], errors[particles - 1], gravity.tree.nodeCount(), ms);
+                if ((theta == 0.0f && errors[particles - 1] > 1e-5) || (theta == 0.5f && mean > 1e-2)) {
+                    failed = true;
+                }
+            }
+
+            // Central mass only: the leapfrog's energy error stays bounded instead of growing
+            gravity.diskMass = 0.0f;
+            gravity.initialize(store);
+            gravity.ensureChunks(1);
+            ParticleRandom random = new ParticleRandom(7L);
+            float dt = 1.0f / 60.0f;
+            double initial = centralEnergy(store, gravity.centralMass);
+            double worst = 0;
+            int steps = 60 * 60; // one simulated minute, several orbits at every radius
+            for (int step = 0; step < steps; step++) {
+                gravity.drift(store, 0, particles, dt * 0.5f);
+                gravity.kickDrift(store, 0, 0, particles, dt, random);
+                worst = Math.max(worst, Math.abs((centralEnergy(store, gravity.centralMass) - initial) / initial));
+            }
+            System.out.printf("energy drift   max %.2e over %d steps%n", worst, steps);
+            if (worst > 1e-3) {
+                failed = true;
+            }
+        }
+
+        System.out.println(failed ? "FAIL" : "PASS");
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
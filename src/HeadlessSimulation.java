@@ -0,0 +1,168 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+// Runs the particle system without a window: a fixed number of frames with a fixed
+// timestep and seed, then prints a summary of the final state. Intended for CI boxes
+// and regression checks, e.g.
+//   java HeadlessSimulation --frames 2000 --dt 0.016 --seed 42 --particles 20000 --threads 4
+// --checkpoint <file> --checkpoint-at <frame> saves the state after that frame, and
+// --restore <file> continues from a saved state for another --frames frames.
+// --gravity integrates orbits under the central mass instead of the parametric spiral;
+// --disk-mass <GM> adds Barnes-Hut self-gravity with opening angle --theta.
+// --scalar keeps the scalar update when the vector kernel is available.
+public class HeadlessSimulation {
+
+    int particles = 20000;
+    int frames = 1000;
+    float deltaTime = 1.0f / 60.0f;
+    long seed = 42L;
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean parallel = true;
+    boolean vectorized = true;
+    float blackHoleRadius = 0.4f;
+    float eventHorizonRadius = 0.6f;
+    String dumpPath;
+    String checkpointPath;
+    int checkpointAt = -1;
+    String restorePath;
+    boolean gravity;
+    float diskMass;
+    float theta = 0.5f;
+
+    ParticleStore store;
+    String restoredFrom;
+    String kernel;
+    long elapsedNanos;
+
+    public void run() throws IOException {
+        Checkpoint restored = restorePath != null ? Checkpoint.read(Paths.get(restorePath)) : null;
+        if (restored != null) {
+            particles = restored.particles.capacity;
+        }
+        store = new ParticleStore(particles, blackHoleRadius, eventHorizonRadius);
+        ParticleUpdateEngine engine = new ParticleUpdateEngine(store, seed, threads);
+        engine.setParallel(parallel);
+        engine.setVectorized(vectorized);
+        kernel = engine.describeKernel();
+        try {
+            if (gravity) {
+                GravityIntegrator integrator = new GravityIntegrator();
+                integrator.diskMass = diskMass;
+                integrator.setTheta(theta);
+                engine.setGravity(integrator);
+            }
+            if (restored != null) {
+                try (restored) {
+                    restored.restoreInto(store, engine);
+                    restoredFrom = "step " + restored.step + " (" + restored.describeDynamics() + ")";
+                }
+            } else {
+                engine.seed();
+            }
+
+            long start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                engine.update(deltaTime);
+                if (frame + 1 == checkpointAt && checkpointPath != null) {
+                    try (Checkpoint checkpoint = Checkpoint.capture(store, engine, frame + 1, new float[0])) {
+                        checkpoint.write(Paths.get(checkpointPath));
+                    }
+                }
+            }
+            elapsedNanos = System.nanoTime() - start;
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    // Order-sensitive hash of the particle columns; equal seeds and thread counts give equal checksums
+    public long checksum() {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < store.capacity; i++) {
+            hash = 31 * hash + Float.floatToIntBits(ParticleStore.getFloat(store.distance, i));
+            hash = 31 * hash + Float.floatToIntBits(ParticleStore.getFloat(store.angle, i));
+            hash = 31 * hash + Float.floatToIntBits(ParticleStore.getFloat(store.height, i));
+            hash = 31 * hash + Float.floatToIntBits(ParticleStore.getFloat(store.life, i));
+        }
+        return hash;
+    }
+
+    public void printReport() {
+        double sumDistance = 0, sumLife = 0;
+        float minDistance = Float.MAX_VALUE, maxDistance = 0;
+        for (int i = 0; i < store.capacity; i++) {
+            float d = ParticleStore.getFloat(store.distance, i);
+            sumDistance += d;
+            sumLife += ParticleStore.getFloat(store.life, i);
+            minDistance = Math.min(minDistance, d);
+            maxDistance = Math.max(maxDistance, d);
+        }
+        int n = store.capacity;
+        double ms = elapsedNanos / 1e6;
+
+        System.out.printf("particles      %d%n", n);
+        System.out.printf("memory         %s%n", store.describeMemory());
+        System.out.printf("frames         %d (dt %.5f, seed %d, %d threads, %s)%n",
+            frames, deltaTime, seed, threads, parallel ? "parallel" : "sequential");
+        if (restoredFrom != null) {
+            System.out.printf("restored       %s%n", restoredFrom);
+        }
+        System.out.printf("kernel         %s%n", gravity ? "gravity integrator" : kernel);
+        if (gravity) {
+            System.out.printf("dynamics       gravity, disk mass %.4f, theta %.2f%n", diskMass, theta);
+        }
+        System.out.printf("elapsed        %.2f ms (%.3f ms/frame)%n", ms, ms / frames);
+        System.out.printf("distance       mean %.5f  min %.5f  max %.5f%n", sumDistance / n, minDistance, maxDistance);
+        System.out.printf("life           mean %.5f%n", sumLife / n);
+        System.out.printf("checksum       %016x%n", checksum());
+    }
+
+    public void dump(String path) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
+            writer.write("index,distance,angle,height,speed,size,life,x,y,z\n");
+            for (int i = 0; i < store.capacity; i++) {
+                long head = store.trailSlot(i, 0);
+                writer.write(i + "," + ParticleStore.getFloat(store.distance, i) + "," + ParticleStore.getFloat(store.angle, i)
+                    + "," + ParticleStore.getFloat(store.height, i) + "," + ParticleStore.getFloat(store.speed, i)
+                    + "," + ParticleStore.getFloat(store.size, i) + "," + ParticleStore.getFloat(store.life, i)
+                    + "," + ParticleStore.getFloat(store.trailX, head) + "," + ParticleStore.getFloat(store.trailY, head)
+                    + "," + ParticleStore.getFloat(store.trailZ, head) + "\n");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        HeadlessSimulation sim = new HeadlessSimulation();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--particles" -> sim.particles = Integer.parseInt(args[++i]);
+                case "--frames" -> sim.frames = Integer.parseInt(args[++i]);
+                case "--dt" -> sim.deltaTime = Float.parseFloat(args[++i]);
+                case "--seed" -> sim.seed = Long.parseLong(args[++i]);
+                case "--threads" -> sim.threads = Integer.parseInt(args[++i]);
+                case "--sequential" -> sim.parallel = false;
+                case "--scalar" -> sim.vectorized = false;
+                case "--dump" -> sim.dumpPath = args[++i];
+                case "--checkpoint" -> sim.checkpointPath = args[++i];
+                case "--checkpoint-at" -> sim.checkpointAt = Integer.parseInt(args[++i]);
+                case "--restore" -> sim.restorePath = args[++i];
+                case "--gravity" -> sim.gravity = true;
+                case "--disk-mass" -> sim.diskMass = Float.parseFloat(args[++i]);
+                case "--theta" -> sim.theta = Float.parseFloat(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        sim.run();
+        try {
+            sim.printReport();
+            if (sim.dumpPath != null) {
+                sim.dump(sim.dumpPath);
+            }
+        } finally {
+            sim.store.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+// Fixed-bucket latency histogram for nanosecond timings. Buckets are log-linear:
+// exact below 32 ns, then 16 buckets per power of two (about 6% resolution) up to
+// roughly 18 minutes. Recording is a few integer ops and never allocates.
+// Written by one thread; other threads may read it for reporting.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 16;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int MAX_MAGNITUDE = 40;
+    static final int BUCKETS = LINEAR + (MAX_MAGNITUDE - 4) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[bucket(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int shift = magnitude - 4;
+        return LINEAR + (magnitude - 5) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    // Midpoint of a bucket's range
+    static long bucketValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int magnitude = 5 + (index - LINEAR) / SUB_BUCKETS;
+        int shift = magnitude - 4;
+        long low = (long) (SUB_BUCKETS + (index - LINEAR) % SUB_BUCKETS) << shift;
+        return low + ((1L << shift) >> 1);
+    }
+
+    public long percentile(double q) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long max() {
+        return max;
+    }
+}
@@ -0,0 +1,527 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Where a point near the hole appears to the real-time camera, from Schwarzschild photon
+// paths instead of the TrailWarp bend. The metric is spherically symmetric, so a photon
+// from an emitter to the eye stays in the plane through the centre, the eye and the
+// emitter, and the primary image only depends on three numbers: the eye's distance D
+// from the centre, the emitter's radius r and the angle psi between the two seen from
+// the centre. The table holds, for each (D, r, psi), the angle theta between the
+// direction to the image and the direction to the centre, as seen from the eye.
+//
+// Each distance slice traces a fan of RAYS photons backwards from the eye, in the plane,
+// with the orbit equation u'' + u = 1.5 * rs * u^2 (u = 1/r, derivatives by psi) that
+// SchwarzschildRenderer integrates in Cartesian form. Below psi = pi no two rays of the
+// fan cross (the caustic of a point lens lies on the axis behind it), so at every psi the
+// radius a ray has reached grows with its launch angle and theta(r) is read off by
+// interpolation. Slices are built in parallel and the table is cached on disk, keyed by
+// rs and the grid, as lensing-rs<rs>.bhlens in the working directory.
+//
+// Per frame, begin() picks the slice for the eye's distance; apply() then costs a few
+// square roots and one bilinear lookup of cos and sin theta per point. Secondary images
+// are not drawn.
+//
+// ParticleBatch lenses the head and the last point of each trail, and the middle one of
+// trails whose ends move differently. The points in between are moved by interpolated
+// offsets unless the middle one shows the lens is far from linear there, so a lensed pack
+// stays within SimulationBenchmark.LENSED_PACK_BUDGET of an unlensed one.
+//
+//   java LensingTable    build the table for rs = 0.4 in memory, check that it survives a
+//                        round trip through a cache file in the temp directory, and
+//                        check it against photons shot through the apparent positions
+public class LensingTable {
+
+    static final String EXTENSION = ".bhlens";
+    static final int MAGIC = 0x4248_4C53; // "BHLS"
+    static final int VERSION = 1;
+    static final int BYTE_ORDER_MARK = 0x0102_0304;
+    static final int HEADER_BYTES = 64;
+
+    // Grid, with distances and radii in units of rs. Eye distances are log-spaced; the
+    // angle axis is q = sin(psi/2) / (sin(psi/2) + cos(psi/2)), which is close to linear
+    // in psi at both ends and needs no inverse trigonometry per point.
+    static final int DISTANCES = 24;
+    static final int RADII = 192;           // cells, RADII + 1 samples
+    static final int ANGLES = 128;          // cells, ANGLES + 1 samples
+    static final int RAYS = 4096;
+    static final int SUBSTEPS = 8;          // RK4 steps per angle cell
+    static final float MIN_DISTANCE = 1.6f; // just outside the photon sphere at 1.5
+    static final float MAX_DISTANCE = 26.0f;
+    static final float MAX_RADIUS = 16.0f;  // points further out are left where they are
+
+    private static final int SLICE = (RADII + 1) * (ANGLES + 1);
+    private static final int UNBEND_SIZE = 4096;
+
+    final float blackHoleRadius;
+    final float[] theta;                    // [distance][radius][angle]
+    String source = "built";
+
+    private final TrailWarp warp;
+    private final float[] unbend = new float[UNBEND_SIZE + 1];
+    private final float unbendScale;
+    private final float maxRadius2;
+    private final float minRadius2;
+    private final float radialScale;
+
+    // Current slice as interleaved cos/sin of theta, rebuilt when the eye distance changes
+    private final float[] slice = new float[2 * SLICE];
+    private float sliceDistance = Float.NaN;
+    private boolean active;
+    private float eyeX, eyeY, eyeZ;
+    private float dirX, dirY, dirZ;         // unit vector from the centre to the eye
+
+    // Apparent position computed by the last apply or deflect
+    float lx, ly, lz;
+    private float sampledCos, sampledSin;
+
+    LensingTable(float blackHoleRadius, float[] theta) {
+        this.blackHoleRadius = blackHoleRadius;
+        this.theta = theta;
+        warp = new TrailWarp(blackHoleRadius);
+        // TrailWarp's bend is 0 from rs + RANGE out
+        float unbendRadius = blackHoleRadius + TrailWarp.RANGE;
+        unbendScale = UNBEND_SIZE / (unbendRadius * unbendRadius);
+        for (int i = 1; i <= UNBEND_SIZE; i++) {
+            float planar = (float) Math.sqrt(i / unbendScale);
+            unbend[i] = warp.lookup(planar) / planar;
+        }
+        unbend[0] = unbend[1];
+        maxRadius2 = MAX_RADIUS * MAX_RADIUS * blackHoleRadius * blackHoleRadius;
+        minRadius2 = blackHoleRadius * blackHoleRadius;
+        radialScale = RADII / ((MAX_RADIUS - 1.0f) * blackHoleRadius);
+    }
+
+    public static Path cachePath(float blackHoleRadius) {
+        return Paths.get(String.format(Locale.ROOT, "lensing-rs%.4f%s", blackHoleRadius, EXTENSION));
+    }
+
+    // Loads the cached table for this radius, or builds and caches it
+    public static LensingTable load(float blackHoleRadius, int threads) throws IOException {
+        Path cache = cachePath(blackHoleRadius);
+        if (Files.exists(cache)) {
+            LensingTable table = tryRead(cache, blackHoleRadius);
+            if (table != null) {
+                return table;
+            }
+        }
+        long start = System.nanoTime();
+        LensingTable table = build(blackHoleRadius, threads);
+        table.source = String.format("built in %.0f ms", (System.nanoTime() - start) / 1e6);
+        try {
+            write(table, cache);
+            table.source += ", cached to " + cache;
+        } catch (IOException e) {
+            // Without the cache the next start only pays for the build again
+            System.err.println("Could not write lensing cache " + cache + ": " + e.getMessage());
+        }
+        return table;
+    }
+
+    public static LensingTable build(float blackHoleRadius, int threads) {
+        float[] theta = new float[DISTANCES * SLICE];
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.submit(() -> IntStream.range(0, DISTANCES).parallel().forEach(d -> buildSlice(d, theta))).join();
+        } finally {
+            pool.shutdown();
+        }
+        return new LensingTable(blackHoleRadius, theta);
+    }
+
+    static float distanceAt(int d) {
+        return MIN_DISTANCE * (float) Math.pow(MAX_DISTANCE / MIN_DISTANCE, d / (double) (DISTANCES - 1));
+    }
+
+    static double psiAt(int k) {
+        double q = k / (double) ANGLES;
+        return k == ANGLES ? Math.PI : 2.0 * Math.atan(q / (1.0 - q));
+    }
+
+    // Traces the fan for one eye distance and inverts it into theta(r, psi). In units of rs.
+    private static void buildSlice(int d, float[] theta) {
+        double eye = distanceAt(d);
+        float[] reached = new float[RAYS * (ANGLES + 1)];  // [angle][ray], radius or 1 once captured
+        for (int n = 0; n < RAYS; n++) {
+            trace(eye, rayAngle(n), reached, n);
+        }
+
+        int base = d * SLICE;
+        for (int j = 0; j <= RADII; j++) {
+            float r = radiusAt(j);
+            theta[base + j * (ANGLES + 1)] = r <= eye ? 0.0f : (float) Math.PI;
+        }
+        for (int k = 1; k <= ANGLES; k++) {
+            int row = k * RAYS;
+            int n = 0;
+            for (int j = 0; j <= RADII; j++) {
+                float r = radiusAt(j);
+                while (n + 1 < RAYS && reached[row + n + 1] <= r) {
+                    n++;
+                }
+                float below = reached[row + n];
+                float t = n + 1 < RAYS && below <= r ? (r - below) / (reached[row + n + 1] - below) : 0.0f;
+                theta[base + j * (ANGLES + 1) + k] = rayAngle(n) + t * (rayAngle(n + 1) - rayAngle(n));
+            }
+        }
+    }
+
+    static float rayAngle(int n) {
+        return (float) (Math.PI * (n + 0.5) / RAYS);
+    }
+
+    static float radiusAt(int j) {
+        return 1.0f + j * (MAX_RADIUS - 1.0f) / RADII;
+    }
+
+    // Photon leaving the eye at angle launch from the direction to the centre, followed
+    // with RK4 in psi. Records its radius at every grid angle: 1 after capture and
+    // +infinity after escape (u reaching 0 is r reaching infinity at finite psi).
+    private static void trace(double eye, float launch, float[] reached, int n) {
+        double u = 1.0 / eye;
+        double w = u / Math.tan(launch);
+        reached[n] = (float) eye;
+        int k = 1;
+        for (; k <= ANGLES; k++) {
+            double h = (psiAt(k) - psiAt(k - 1)) / SUBSTEPS;
+            for (int step = 0; step < SUBSTEPS && u > 0.0 && u < 1.0; step++) {
+                double a1 = 1.5 * u * u - u;
+                double u2 = u + 0.5 * h * w, w2 = w + 0.5 * h * a1;
+                double a2 = 1.5 * u2 * u2 - u2;
+                double u3 = u + 0.5 * h * w2, w3 = w + 0.5 * h * a2;
+                double a3 = 1.5 * u3 * u3 - u3;
+                double u4 = u + h * w3, w4 = w + h * a3;
+                double a4 = 1.5 * u4 * u4 - u4;
+                u += h / 6 * (w + 2 * w2 + 2 * w3 + w4);
+                w += h / 6 * (a1 + 2 * a2 + 2 * a3 + a4);
+            }
+            if (u >= 1.0) {
+                break;
+            }
+            if (u <= 0.0) {
+                break;
+            }
+            reached[k * RAYS + n] = (float) (1.0 / u);
+        }
+        float rest = u >= 1.0 ? 1.0f : Float.POSITIVE_INFINITY;
+        for (; k <= ANGLES; k++) {
+            reached[k * RAYS + n] = rest;
+        }
+    }
+
+    // Selects the slice for the camera's eye; call after camera.update()
+    public void begin(CameraMatrices camera) {
+        eyeX = camera.eyeX;
+        eyeY = camera.eyeY;
+        eyeZ = camera.eyeZ;
+        float distance = (float) Math.sqrt(eyeX * eyeX + eyeY * eyeY + eyeZ * eyeZ);
+        active = distance > MIN_DISTANCE * blackHoleRadius;
+        if (!active) {
+            return;
+        }
+        dirX = eyeX / distance;
+        dirY = eyeY / distance;
+        dirZ = eyeZ / distance;
+        if (distance != sliceDistance) {
+            selectSlice(distance / blackHoleRadius);
+            sliceDistance = distance;
+        }
+    }
+
+    // Interpolates theta between the two nearest distances (log-spaced, so in log distance)
+    private void selectSlice(float distance) {
+        double t = Math.log(distance / MIN_DISTANCE) / Math.log(MAX_DISTANCE / MIN_DISTANCE) * (DISTANCES - 1);
+        t = Math.max(0.0, Math.min(t, DISTANCES - 1));
+        int d = Math.min((int) t, DISTANCES - 2);
+        float f = (float) (t - d);
+        int a = d * SLICE, b = a + SLICE;
+        for (int i = 0; i < SLICE; i++) {
+            float angle = theta[a + i] + f * (theta[b + i] - theta[a + i]);
+            slice[2 * i] = (float) Math.cos(angle);
+            slice[2 * i + 1] = (float) Math.sin(angle);
+        }
+    }
+
+    // Apparent position of a trail position as ParticleStore writes it, into lx, ly, lz.
+    // Its y carries TrailWarp's bend, which the table replaces, so that is taken out first,
+    // from the bend divided by the planar radius tabulated by squared planar radius.
+    public void apply(float x, float y, float z) {
+        float f = (x * x + z * z) * unbendScale;
+        if (f < UNBEND_SIZE) {
+            int i = (int) f;
+            y -= z * (unbend[i] + (unbend[i + 1] - unbend[i]) * (f - i));
+        }
+        deflect(x, y, z);
+    }
+
+    // Apparent position of a point at (x, y, z), into lx, ly, lz. Points inside rs, beyond
+    // MAX_RADIUS and on the eye's axis are returned unchanged. The image is placed as far
+    // from the eye as the point is, so depth and point size LOD stay meaningful. The work
+    // is split over small methods so the JIT inlines all of it into the packing loop.
+    public void deflect(float x, float y, float z) {
+        float r2 = x * x + y * y + z * z;
+        if (!active || r2 >= maxRadius2 || r2 <= minRadius2) {
+            unchanged(x, y, z);
+            return;
+        }
+        // Along the axis the point lies r cos(psi) from the centre and h = r sin(psi) off it
+        float along = x * dirX + y * dirY + z * dirZ;
+        float r = (float) Math.sqrt(r2);
+        float h = (float) Math.sqrt(Math.max(0.0f, r2 - along * along));
+        if (h < 1e-5f * r) {
+            unchanged(x, y, z);
+            return;
+        }
+
+        // q = tan(psi/2) / (1 + tan(psi/2)) with tan(psi/2) = h / (r + along); one division
+        // gives both q and 1 / h
+        float sum = h + r + along;
+        float inverse = 1.0f / (h * sum);
+        sample(r, h * h * inverse);
+        place(x, y, z, along, sum * inverse);
+    }
+
+    // Puts the image at the sampled theta from the axis, as far from the eye as the point.
+    // The point's offset from the axis times inverseH is the unit vector in the lens plane
+    // perpendicular to the axis, on the point's side.
+    private void place(float x, float y, float z, float along, float inverseH) {
+        float sinTheta = sampledSin * inverseH;
+        float dx = x - eyeX, dy = y - eyeY, dz = z - eyeZ;
+        float depth = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        lx = eyeX + depth * ((x - along * dirX) * sinTheta - dirX * sampledCos);
+        ly = eyeY + depth * ((y - along * dirY) * sinTheta - dirY * sampledCos);
+        lz = eyeZ + depth * ((z - along * dirZ) * sinTheta - dirZ * sampledCos);
+    }
+
+    private void unchanged(float x, float y, float z) {
+        lx = x;
+        ly = y;
+        lz = z;
+    }
+
+    // Bilinear lookup of cos and sin theta at radius r and angle coordinate q, into
+    // sampledCos and sampledSin
+    private void sample(float r, float q) {
+        float fr = (r - blackHoleRadius) * radialScale;
+        int j = Math.min((int) fr, RADII - 1);
+        float tr = fr - j;
+        float fq = q * ANGLES;
+        int k = Math.min((int) fq, ANGLES - 1);
+        float tq = fq - k;
+        int o = 2 * (j * (ANGLES + 1) + k);
+        int o2 = o + 2 * (ANGLES + 1);
+        float[] t = slice;
+        float cosNear = t[o] + (t[o + 2] - t[o]) * tq, sinNear = t[o + 1] + (t[o + 3] - t[o + 1]) * tq;
+        float cosFar = t[o2] + (t[o2 + 2] - t[o2]) * tq, sinFar = t[o2 + 1] + (t[o2 + 3] - t[o2 + 1]) * tq;
+        sampledCos = cosNear + (cosFar - cosNear) * tr;
+        sampledSin = sinNear + (sinFar - sinNear) * tr;
+    }
+
+    public String describe() {
+        return String.format("%d distances x %d radii x %d angles from %d rays each, %s",
+            DISTANCES, RADII + 1, ANGLES + 1, RAYS, source);
+    }
+
+    static void write(LensingTable table, Path cache) throws IOException {
+        Path temp = cache.resolveSibling(cache.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + table.theta.length * Float.BYTES)
+                .order(ByteOrder.nativeOrder());
+            putHeader(buf, table.blackHoleRadius);
+            buf.asFloatBuffer().put(table.theta);
+            buf.clear();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        }
+        Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The grid is part of the key, so a cache from differently sized tables is rebuilt
+    private static void putHeader(ByteBuffer buf, float blackHoleRadius) {
+        buf.putInt(MAGIC).putInt(VERSION).putInt(BYTE_ORDER_MARK).putFloat(blackHoleRadius);
+        buf.putInt(DISTANCES).putInt(RADII).putInt(ANGLES).putInt(RAYS).putInt(SUBSTEPS);
+        buf.putFloat(MIN_DISTANCE).putFloat(MAX_DISTANCE).putFloat(MAX_RADIUS);
+        buf.position(HEADER_BYTES);
+    }
+
+    // Reads a cache file if it is well formed and matches the radius and grid, otherwise returns null
+    static LensingTable tryRead(Path cache, float blackHoleRadius) throws IOException {
+        int floats = DISTANCES * SLICE;
+        try (FileChannel in = FileChannel.open(cache, StandardOpenOption.READ)) {
+            if (in.size() != HEADER_BYTES + (long) floats * Float.BYTES) return null;
+
+            ByteBuffer expected = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            putHeader(expected, blackHoleRadius);
+            ByteBuffer buf = ByteBuffer.allocate((int) in.size()).order(ByteOrder.nativeOrder());
+            while (buf.hasRemaining() && in.read(buf) >= 0) { }
+            if (buf.hasRemaining() || !buf.duplicate().position(0).limit(HEADER_BYTES).equals(expected.clear())) {
+                return null;
+            }
+
+            float[] theta = new float[floats];
+            buf.position(HEADER_BYTES);
+            buf.asFloatBuffer().get(theta);
+            LensingTable table = new LensingTable(blackHoleRadius, theta);
+            table.source = "loaded from " + cache;
+            return table;
+        }
+    }
+
+    // Builds the table for the simulation's rs, then shoots a photon from the eye
+    // through each apparent position with SchwarzschildRenderer's Cartesian equation and
+    // measures how closely it passes the emitter, in radians as seen from the eye. The
+    // same is measured for the unlensed direction. Exits 1 if the table does not beat it
+    // clearly or a 99th percentile miss exceeds 0.01 rad.
+    public static void main(String[] args) throws IOException {
+        float rs = 0.4f;
+        long start = System.nanoTime();
+        LensingTable table = build(rs, Runtime.getRuntime().availableProcessors());
+        System.out.printf("Lensing table: %s (%.0f ms)%n", table.describe(), (System.nanoTime() - start) / 1e6);
+
+        Path cache = Files.createTempFile("lensing", EXTENSION);
+        try {
+            write(table, cache);
+            LensingTable cached = tryRead(cache, rs);
+            if (cached == null || !Arrays.equals(cached.theta, table.theta)) {
+                System.out.println("table does not survive the cache file");
+                System.exit(1);
+            }
+        } finally {
+            Files.deleteIfExists(cache);
+        }
+
+        int samples = 2000;
+        float[] lensed = new float[samples];
+        float[] straight = new float[samples];
+        CameraMatrices camera = new CameraMatrices();
+        Random random = new Random(11);
+        for (int s = 0; s < samples; s++) {
+            // Eyes over the zoom range, emitters over the disk the particles fill
+            camera.setOrbit(0.6f + random.nextFloat() * 5.4f, random.nextFloat() * 1.2f - 0.4f,
+                random.nextFloat() * 360.0f, random.nextFloat() * 60.0f - 30.0f);
+            camera.setPan(0.0f, 0.0f);
+            camera.update();
+            table.begin(camera);
+            float d = 0.44f + random.nextFloat() * 1.66f, a = random.nextFloat() * 6.2831855f;
+            float x = d * (float) Math.cos(a), y = (random.nextFloat() - 0.5f) * 0.1f, z = d * (float) Math.sin(a);
+            table.deflect(x, y, z);
+            lensed[s] = miss(camera, table.lx, table.ly, table.lz, x, y, z, rs);
+            straight[s] = miss(camera, x, y, z, x, y, z, rs);
+        }
+        Arrays.sort(lensed);
+        Arrays.sort(straight);
+        System.out.printf("miss through the table:     median %.2e  p90 %.2e  p99 %.2e rad%n",
+            lensed[samples / 2], lensed[samples * 9 / 10], lensed[samples * 99 / 100]);
+        System.out.printf("miss without lensing:       median %.2e  p90 %.2e  p99 %.2e rad%n",
+            straight[samples / 2], straight[samples * 9 / 10], straight[samples * 99 / 100]);
+
+        // Per point cost on trail positions around the disk, as ParticleStore writes them;
+        // SimulationBenchmark's particle.pack[lensed] measures it inside the packing loop
+        int points = 1 << 16;
+        float[] xyz = new float[points * 3];
+        for (int i = 0; i < points; i++) {
+            float d = 0.44f + random.nextFloat() * 1.66f, a = random.nextFloat() * 6.2831855f;
+            xyz[3 * i] = d * (float) Math.cos(a);
+            xyz[3 * i + 1] = (float) Math.sin(a) * table.warp.lookup(d);
+            xyz[3 * i + 2] = d * (float) Math.sin(a);
+        }
+        float sink = 0.0f;
+        long nanos = 0;
+        for (int pass = 0; pass < 40; pass++) {
+            long t = System.nanoTime();
+            for (int i = 0; i < 3 * points; i += 3) {
+                table.apply(xyz[i], xyz[i + 1], xyz[i + 2]);
+                sink += table.lx;
+            }
+            nanos = System.nanoTime() - t;
+        }
+        System.out.printf("apply: %.1f ns per point%n", nanos / (double) points);
+        if (sink == 42.0f) {
+            System.out.println();
+        }
+
+        boolean failed = lensed[samples * 99 / 100] > 0.01f || lensed[samples / 2] * 10 > straight[samples / 2];
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // Angle at the eye between the emitter and the closest point of the photon launched
+    // towards (tx, ty, tz); the photon is followed until it is captured, escapes or has
+    // swept more than half a turn around the centre
+    private static float miss(CameraMatrices camera, float tx, float ty, float tz, float x, float y, float z, float rs) {
+        double px = camera.eyeX, py = camera.eyeY, pz = camera.eyeZ;
+        double vx = tx - px, vy = ty - py, vz = tz - pz;
+        double len = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        vx /= len; vy /= len; vz /= len;
+        double hx = py * vz - pz * vy, hy = pz * vx - px * vz, hz = px * vy - py * vx;
+        double k = -1.5 * rs * (hx * hx + hy * hy + hz * hz);
+        double eyeRadius = Math.sqrt(px * px + py * py + pz * pz);
+        double emitterRadius = Math.sqrt(x * x + y * y + z * z);
+        double escape = 2.0 * Math.max(eyeRadius, emitterRadius);
+
+        double best = Double.MAX_VALUE;
+        for (int step = 0; step < 200_000; step++) {
+            double radius = Math.sqrt(px * px + py * py + pz * pz);
+            if (radius < rs || (radius > escape && px * vx + py * vy + pz * vz > 0)) {
+                break;
+            }
+            double h = Math.min(0.002 * radius, 0.01);
+            double[] s = {px, py, pz, vx, vy, vz};
+            rk4(s, h, k);
+            // Distance from the emitter to this step's segment
+            double sx = s[0] - px, sy = s[1] - py, sz = s[2] - pz;
+            double t = ((x - px) * sx + (y - py) * sy + (z - pz) * sz) / Math.max(sx * sx + sy * sy + sz * sz, 1e-30);
+            t = Math.max(0.0, Math.min(t, 1.0));
+            double cx = px + t * sx - x, cy = py + t * sy - y, cz = pz + t * sz - z;
+            best = Math.min(best, Math.sqrt(cx * cx + cy * cy + cz * cz));
+            px = s[0]; py = s[1]; pz = s[2];
+            vx = s[3]; vy = s[4]; vz = s[5];
+            double swept = Math.acos(Math.max(-1.0, Math.min(1.0,
+                (px * camera.eyeX + py * camera.eyeY + pz * camera.eyeZ) / (radius * eyeRadius))));
+            if (swept > Math.PI * 0.999 && best < Double.MAX_VALUE && radius > emitterRadius) {
+                break;
+            }
+        }
+        double dx = x - camera.eyeX, dy = y - camera.eyeY, dz = z - camera.eyeZ;
+        return (float) (best / Math.sqrt(dx * dx + dy * dy + dz * dz));
+    }
+
+    // One RK4 step of d2x/dl2 = k * x / r^5 on state (x, y, z, vx, vy, vz)
+    private static void rk4(double[] s, double h, double k) {
+        double[] k1 = derivative(s, k);
+        double[] k2 = derivative(offset(s, k1, 0.5 * h), k);
+        double[] k3 = derivative(offset(s, k2, 0.5 * h), k);
+        double[] k4 = derivative(offset(s, k3, h), k);
+        for (int i = 0; i < 6; i++) {
+            s[i] += h / 6 * (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]);
+        }
+    }
+
+    private static double[] derivative(double[] s, double k) {
+        double r = Math.sqrt(s[0] * s[0] + s[1] * s[1] + s[2] * s[2]);
+        double f = k / Math.pow(r, 5);
+        return new double[] {s[3], s[4], s[5], f * s[0], f * s[1], f * s[2]};
+    }
+
+    private static double[] offset(double[] s, double[] d, double h) {
+        double[] out = new double[6];
+        for (int i = 0; i < 6; i++) {
+            out[i] = s[i] + h * d[i];
+        }
+        return out;
+    }
+}
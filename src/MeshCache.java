@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Compiled binary form of an OBJ file, stored next to the source as <name>.obj.bhmesh.
+//
+//   header (HEADER_BYTES)  magic, version, byte order mark, source size, source mtime,
+//                          source CRC32C, vertex count, index count
+//   float block            vertexCount * 3 positions
+//   float block            vertexCount * 3 smooth normals
+//   int block              indexCount triangle indices
+//
+// Blocks are written in native byte order so a load is just a memory map; the mapped
+// buffers are direct and can be handed to glBufferData without copying. A cache file
+// is used while the source's size and mtime match, or its content hash does.
+//
+//   java MeshCache Textures [--force]    precompile every .obj under a directory
+public class MeshCache {
+
+    static final String EXTENSION = ".bhmesh";
+    static final int MAGIC = 0x4248_4D53; // "BHMS"
+    static final int VERSION = 1;
+    static final int BYTE_ORDER_MARK = 0x0102_0304;
+    static final int HEADER_BYTES = 64;
+
+    public static Path cachePath(Path source) {
+        return source.resolveSibling(source.getFileName() + EXTENSION);
+    }
+
+    // Loads the compiled mesh for an OBJ file, compiling and caching it first if needed
+    public static CompiledMesh load(Path source) throws IOException {
+        Path cache = cachePath(source);
+        if (Files.exists(cache)) {
+            CompiledMesh mesh = tryMap(source, cache);
+            if (mesh != null) {
+                return mesh;
+            }
+        }
+        return compile(source, cache);
+    }
+
+    public static CompiledMesh compile(Path source, Path cache) throws IOException {
+        Scene scene = OBJModel.parse(source.toString());
+        CompiledMesh mesh = CompiledMesh.fromScene(scene);
+        try {
+            write(mesh, source, cache);
+        } catch (IOException e) {
+            // A read-only asset directory only costs us the cache, not the mesh
+            System.err.println("Could not write mesh cache " + cache + ": " + e.getMessage());
+            return mesh;
+        }
+        CompiledMesh mapped = tryMap(source, cache);
+        return mapped != null ? mapped : mesh;
+    }
+
+    static void write(CompiledMesh mesh, Path source, Path cache) throws IOException {
+        long size = Files.size(source);
+        long mtime = Files.getLastModifiedTime(source).toMillis();
+        long hash = contentHash(source);
+
+        Path temp = cache.resolveSibling(cache.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+            putHeader(buf, size, mtime, hash, mesh.vertexCount, mesh.indexCount);
+
+            writeFloats(out, buf, mesh.positions.duplicate().clear());
+            writeFloats(out, buf, mesh.normals.duplicate().clear());
+            writeInts(out, buf, mesh.indices.duplicate().clear());
+            flush(out, buf);
+        }
+        Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Writes HEADER_BYTES at the buffer's position; buf must be in native order
+    static void putHeader(ByteBuffer buf, long sourceSize, long sourceMtime, long sourceHash,
+                          int vertexCount, int indexCount) {
+        int start = buf.position();
+        buf.putInt(MAGIC).putInt(VERSION).putInt(BYTE_ORDER_MARK).putInt(0);
+        buf.putLong(sourceSize).putLong(sourceMtime).putLong(sourceHash);
+        buf.putInt(vertexCount).putInt(indexCount);
+        buf.position(start + HEADER_BYTES);
+    }
+
+    private static void writeFloats(FileChannel out, ByteBuffer buf, FloatBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), buf.remaining() / Float.BYTES);
+            if (n == 0) {
+                flush(out, buf);
+                continue;
+            }
+            buf.asFloatBuffer().put(src.slice().limit(n));
+            src.position(src.position() + n);
+            buf.position(buf.position() + n * Float.BYTES);
+        }
+    }
+
+    private static void writeInts(FileChannel out, ByteBuffer buf, IntBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), buf.remaining() / Integer.BYTES);
+            if (n == 0) {
+                flush(out, buf);
+                continue;
+            }
+            buf.asIntBuffer().put(src.slice().limit(n));
+            src.position(src.position() + n);
+            buf.position(buf.position() + n * Integer.BYTES);
+        }
+    }
+
+    private static void flush(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    // Maps a cache file if it is well formed and still matches its source, otherwise returns null
+    static CompiledMesh tryMap(Path source, Path cache) throws IOException {
+        try (FileChannel in = FileChannel.open(cache, StandardOpenOption.READ)) {
+            if (in.size() < HEADER_BYTES) return null;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            while (header.hasRemaining() && in.read(header) >= 0) { }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != BYTE_ORDER_MARK) {
+                return null;
+            }
+            header.getInt();
+            long size = header.getLong();
+            long mtime = header.getLong();
+            long hash = header.getLong();
+            int vertexCount = header.getInt();
+            int indexCount = header.getInt();
+            if (vertexCount < 0 || indexCount < 0 || indexCount % 3 != 0) return null;
+
+            if (size != Files.size(source)) return null;
+            if (mtime != Files.getLastModifiedTime(source).toMillis() && hash != contentHash(source)) return null;
+
+            long vertexBytes = (long) vertexCount * 3 * Float.BYTES;
+            long indexBytes = (long) indexCount * Integer.BYTES;
+            if (in.size() != HEADER_BYTES + 2 * vertexBytes + indexBytes) return null;
+
+            MappedByteBuffer positions = in.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, vertexBytes);
+            MappedByteBuffer normals = in.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + vertexBytes, vertexBytes);
+            MappedByteBuffer indices = in.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 2 * vertexBytes, indexBytes);
+            IntBuffer triangles = indices.order(ByteOrder.nativeOrder()).asIntBuffer();
+            // The indices go straight to meshoptimizer and glDrawElements, neither of which
+            // bounds checks; a damaged cache (ours or SphereObjGenerator --binary) is recompiled
+            for (int i = 0; i < indexCount; i++) {
+                if (Integer.compareUnsigned(triangles.get(i), vertexCount) >= 0) return null;
+            }
+            return new CompiledMesh(
+                positions.order(ByteOrder.nativeOrder()).asFloatBuffer(),
+                normals.order(ByteOrder.nativeOrder()).asFloatBuffer(),
+                triangles, vertexCount, indexCount);
+        }
+    }
+
+    static long contentHash(Path source) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; pos += Integer.MAX_VALUE) {
+                crc.update(in.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Integer.MAX_VALUE, size - pos)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: java MeshCache <directory> [--force]");
+            return;
+        }
+        Path root = Paths.get(args[0]);
+        boolean force = args.length > 1 && args[1].equals("--force");
+
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(root)) {
+            sources = files.filter(p -> p.toString().toLowerCase().endsWith(".obj")).collect(Collectors.toList());
+        }
+
+        sources.parallelStream().forEach(source -> {
+            Path cache = cachePath(source);
+            try {
+                long start = System.nanoTime();
+                if (!force && Files.exists(cache) && tryMap(source, cache) != null) {
+                    System.out.println("up to date  " + source);
+                    return;
+                }
+                CompiledMesh mesh = compile(source, cache);
+                System.out.printf("compiled    %s (%d vertices, %d triangles, %.1f ms)%n",
+                    source, mesh.vertexCount, mesh.indexCount / 3, (System.nanoTime() - start) / 1e6);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("failed      " + source + ": " + e);
+            }
+        });
+    }
+}
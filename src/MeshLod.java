@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Paths;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.util.meshoptimizer.MeshoptVertexCacheStatistics;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.util.meshoptimizer.MeshOptimizer.*;
+
+// Load-time optimization of a smooth-shaded triangle mesh with meshoptimizer, plus a
+// chain of simplified levels of detail that share one vertex buffer.
+//
+//   1. vertices at the same position are welded (UV spheres repeat the seam and pole
+//      vertices), triangles that collapse are dropped and smooth normals are recomputed
+//      on the welded mesh
+//   2. triangles are reordered for the post-transform vertex cache, then for overdraw,
+//      and vertices are reordered into first-use order for fetch locality
+//   3. each further level targets half the previous triangle count; meshopt_simplify
+//      reports the geometric error it introduced, which select() turns into pixels
+//
+// The prepared mesh holds every level's indices back to back; PreparedMesh.lodFirst
+// marks where each starts. java MeshLod [file.obj] prints the report and the level
+// picked at a range of camera distances.
+public class MeshLod {
+
+    static final int MAX_LEVELS = 6;
+    static final int MIN_TRIANGLES = 64;
+    static final int CACHE_SIZE = 16;
+    static final float WELD_TOLERANCE = 1e-6f;
+    static final float OVERDRAW_THRESHOLD = 1.05f;
+    static final float MAX_PIXEL_ERROR = 0.5f;
+
+    final PreparedMesh mesh;
+    final float[] lodError;      // absolute error of each level in mesh units; 0 for level 0
+    final float boundingRadius;  // largest distance of a vertex from the mesh origin
+
+    final int trianglesBefore;
+    final int trianglesAfter;
+    final int verticesBefore;
+    final int verticesAfter;
+    final float acmrBefore;
+    final float acmrAfter;
+
+    private MeshLod(PreparedMesh mesh, float[] lodError, float boundingRadius, int trianglesBefore, int trianglesAfter,
+                    int verticesBefore, int verticesAfter, float acmrBefore, float acmrAfter) {
+        this.mesh = mesh;
+        this.lodError = lodError;
+        this.boundingRadius = boundingRadius;
+        this.trianglesBefore = trianglesBefore;
+        this.trianglesAfter = trianglesAfter;
+        this.verticesBefore = verticesBefore;
+        this.verticesAfter = verticesAfter;
+        this.acmrBefore = acmrBefore;
+        this.acmrAfter = acmrAfter;
+    }
+
+    public static MeshLod build(CompiledMesh source) {
+        float[] positions = new float[source.vertexCount * 3];
+        int[] indices = new int[source.indexCount];
+        source.positions.get(0, positions);
+        source.indices.get(0, indices);
+        return build(positions, indices);
+    }
+
+    public static MeshLod build(float[] positions, int[] indices) {
+        int inVertices = positions.length / 3;
+        int inIndices = indices.length - indices.length % 3;
+        FloatBuffer inPositions = memAllocFloat(positions.length).put(positions).flip();
+        IntBuffer work = memAllocInt(Math.max(inIndices, 3)).put(indices, 0, inIndices).flip();
+        IntBuffer remap = memAllocInt(Math.max(inVertices, 1));
+        try {
+            float acmrBefore = acmr(work, inVertices);
+
+            // 1. Weld on position alone, snapped to WELD_TOLERANCE of the extent so that seams
+            // computed as sin(2 pi) and poles as cos(pi / 2) meet; the normals are rebuilt below
+            float extent = 0.0f;
+            for (float p : positions) {
+                extent = Math.max(extent, Math.abs(p));
+            }
+            float snap = extent > 0.0f ? 1.0f / (extent * WELD_TOLERANCE) : 0.0f;
+            IntBuffer keys = memAllocInt(Math.max(positions.length, 1));
+            int vertexCount;
+            try {
+                for (float p : positions) {
+                    keys.put(Math.round(p * snap));
+                }
+                vertexCount = (int) meshopt_generateVertexRemap(remap, work, inIndices,
+                    memByteBuffer(memAddress0(keys), positions.length * Integer.BYTES), inVertices, 3 * Integer.BYTES);
+            } finally {
+                memFree(keys);
+            }
+            FloatBuffer welded = memAllocFloat(vertexCount * 3);
+            float[] weldedPositions = new float[vertexCount * 3];
+            try {
+                meshopt_remapVertexBuffer(memByteBuffer(memAddress(welded), vertexCount * 3 * Float.BYTES),
+                    memByteBuffer(memAddress(inPositions), positions.length * Float.BYTES), inVertices, 3 * Float.BYTES, remap);
+                welded.get(0, weldedPositions);
+            } finally {
+                memFree(welded);
+            }
+            meshopt_remapIndexBuffer(work, work, inIndices, remap);
+
+            int indexCount = 0;
+            for (int t = 0; t < inIndices; t += 3) {
+                int a = work.get(t), b = work.get(t + 1), c = work.get(t + 2);
+                if (a != b && b != c && a != c) {
+                    work.put(indexCount++, a).put(indexCount++, b).put(indexCount++, c);
+                }
+            }
+            work.limit(indexCount);
+            int[] weldedIndices = new int[indexCount];
+            work.get(0, weldedIndices);
+            float[] normals = CompiledMesh.smoothNormals(weldedPositions, weldedIndices);
+
+            ByteBuffer vertices = BufferUtils.createByteBuffer(vertexCount * PreparedMesh.BYTES_PER_VERTEX);
+            FloatBuffer vertexFloats = vertices.asFloatBuffer();
+            for (int i = 0; i < weldedPositions.length; i += 3) {
+                vertexFloats.put(weldedPositions, i, 3).put(normals, i, 3);
+            }
+
+            // 2. Vertex cache, overdraw, then vertex fetch order
+            IntBuffer lod0 = memAllocInt(Math.max(indexCount, 3)).limit(indexCount);
+            ByteBuffer fetched = BufferUtils.createByteBuffer(vertices.capacity());
+            try {
+                meshopt_optimizeVertexCache(lod0, work, vertexCount);
+                meshopt_optimizeOverdraw(work, lod0, vertexFloats.clear(), vertexCount, PreparedMesh.BYTES_PER_VERTEX,
+                    OVERDRAW_THRESHOLD);
+                int used = (int) meshopt_optimizeVertexFetch(fetched, work, vertices, vertexCount, PreparedMesh.BYTES_PER_VERTEX);
+                float acmrAfter = acmr(work, used);
+
+                // 3. Simplified levels, each from the full-detail level so errors do not compound
+                FloatBuffer fetchedFloats = fetched.asFloatBuffer();
+                float scale = meshopt_simplifyScale(fetchedFloats, used, PreparedMesh.BYTES_PER_VERTEX);
+                IntBuffer all = memAllocInt(indexCount * (MAX_LEVELS + 1) + 3);
+                try {
+                    all.put(work);
+                    work.flip();
+                    int[] lodFirst = new int[MAX_LEVELS + 1];
+                    float[] lodError = new float[MAX_LEVELS];
+                    int levels = 1;
+                    lodFirst[1] = indexCount;
+                    int previous = indexCount;
+                    try (MemoryStack stack = MemoryStack.stackPush()) {
+                        FloatBuffer error = stack.mallocFloat(1);
+                        while (levels < MAX_LEVELS) {
+                            int target = previous / 6 * 3;
+                            if (target < MIN_TRIANGLES * 3) {
+                                break;
+                            }
+                            IntBuffer destination = all.slice(lodFirst[levels], indexCount);
+                            int count = (int) meshopt_simplify(destination, work, fetchedFloats, used,
+                                PreparedMesh.BYTES_PER_VERTEX, target, 1.0f, 0, error);
+                            if (count > previous * 9 / 10) {
+                                break;
+                            }
+                            destination.limit(count);
+                            meshopt_optimizeVertexCache(destination, destination, used);
+                            lodError[levels] = error.get(0) * scale;
+                            levels++;
+                            lodFirst[levels] = lodFirst[levels - 1] + count;
+                            previous = count;
+                        }
+                    }
+
+                    int total = lodFirst[levels];
+                    IntBuffer indexBuffer = BufferUtils.createIntBuffer(total).put(all.position(0).limit(total)).flip();
+                    float radius = 0.0f;
+                    for (int i = 0; i < used; i++) {
+                        float x = fetchedFloats.get(i * 6), y = fetchedFloats.get(i * 6 + 1), z = fetchedFloats.get(i * 6 + 2);
+                        radius = Math.max(radius, (float) Math.sqrt(x * x + y * y + z * z));
+                    }
+                    PreparedMesh prepared = new PreparedMesh(fetchedFloats.clear().limit(used * PreparedMesh.FLOATS_PER_VERTEX),
+                        indexBuffer, used, total, java.util.Arrays.copyOf(lodFirst, levels + 1));
+                    return new MeshLod(prepared, java.util.Arrays.copyOf(lodError, levels), radius,
+                        inIndices / 3, indexCount / 3, inVertices, used, acmrBefore, acmrAfter);
+                } finally {
+                    memFree(all);
+                }
+            } finally {
+                memFree(lod0);
+            }
+        } finally {
+            memFree(inPositions);
+            memFree(work);
+            memFree(remap);
+        }
+    }
+
+    // Average transformed vertices per triangle for a FIFO cache of CACHE_SIZE entries
+    static float acmr(IntBuffer indices, int vertexCount) {
+        if (indices.remaining() < 3) {
+            return 0.0f;
+        }
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            MeshoptVertexCacheStatistics stats = MeshoptVertexCacheStatistics.malloc(stack);
+            meshopt_analyzeVertexCache(indices, vertexCount, CACHE_SIZE, 0, 0, stats);
+            return stats.acmr();
+        }
+    }
+
+    public int levels() {
+        return lodError.length;
+    }
+
+    public int triangles(int level) {
+        return (mesh.lodFirst[level + 1] - mesh.lodFirst[level]) / 3;
+    }
+
+    // Coarsest level whose error stays under MAX_PIXEL_ERROR, for the mesh drawn at the
+    // origin scaled by scale and seen from eyeDistance through a vertical field of view
+    public int select(float scale, float eyeDistance, int viewportHeight, float fovYDegrees) {
+        float surface = Math.max(eyeDistance - boundingRadius * scale, 1e-3f);
+        float pixelsPerUnit = viewportHeight * 0.5f / (float) Math.tan(Math.toRadians(fovYDegrees) * 0.5) / surface;
+        int level = 0;
+        for (int k = 1; k < lodError.length; k++) {
+            if (lodError[k] * scale * pixelsPerUnit <= MAX_PIXEL_ERROR) {
+                level = k;
+            }
+        }
+        return level;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%,d -> %,d triangles, %,d -> %,d vertices, ACMR %.3f -> %.3f; LODs",
+            trianglesBefore, trianglesAfter, verticesBefore, verticesAfter, acmrBefore, acmrAfter));
+        for (int k = 0; k < levels(); k++) {
+            sb.append(String.format(" %,d", triangles(k)));
+            if (k > 0) {
+                sb.append(String.format(" (%.2g)", lodError[k]));
+            }
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        float scale = 1.0f;
+        MeshLod lod;
+        if (args.length > 0) {
+            lod = build(MeshCache.load(Paths.get(args[0])));
+            scale = 0.4f / lod.boundingRadius; // BlackHoleSimulation scales the OBJ core to blackHoleRadius
+        } else {
+            lod = build(Geometry.solidSphere(0.4f, 64, 64), Geometry.sphereIndices(64, 64));
+        }
+        System.out.println(lod.report());
+        for (float distance : new float[] {0.5f, 1.0f, 2.0f, 4.0f, 10.0f, 40.0f}) {
+            int level = lod.select(scale, distance, 900, 65.0f);
+            System.out.printf("distance %5.1f  level %d  %,d triangles%n", distance, level, lod.triangles(level));
+        }
+    }
+}
@@ -1,90 +1,396 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+// Wavefront OBJ loader. The file is memory-mapped and numbers are parsed straight
+// from the bytes into growable primitive arrays; only "v" and "f" records are read.
+// Files above PARALLEL_THRESHOLD are split into chunks at line boundaries and the
+// chunks are parsed in parallel, then stitched back together in file order.
+// Face corners are checked as they are stitched: index 0, a corner without a vertex
+// index, or one that resolves outside the vertex list fails the load with the line
+// and token, since the indices end up in native code that does no bounds checks.
 public class OBJModel {
 
+    static final long PARALLEL_THRESHOLD = 8L << 20;
+    private static final long MAX_CHUNK = 1L << 30;
+
+    // Compiled, cached form of the file; see MeshCache
+    public static CompiledMesh load(String filePath) throws IOException {
+        return MeshCache.load(Paths.get(filePath));
+    }
+
     public static Scene parse(String filePath) throws IOException {
-        Scene scene = new Scene();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] tokens = line.split(" ");
-                switch (tokens[0]) {
-                    case "v":
-                        scene.vertices.add(new Vector3(
-                            Double.parseDouble(tokens[1]),
-                            Double.parseDouble(tokens[2]),
-                            Double.parseDouble(tokens[3])
-                        ));
-                        break;
-                    case "f":
-                        int[] faceVertices = new int[tokens.length - 1];
-                        for (int i = 0; i < faceVertices.length; i++) {
-                            faceVertices[i] = Integer.parseInt(tokens[i + 1].split("/")[0]) - 1;
-                        }
-                        scene.faces.add(new Face(faceVertices));
-                        break;
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return parse(filePath, channel, channel.size() >= PARALLEL_THRESHOLD);
+        }
+    }
+
+    public static Scene parse(String filePath, boolean parallel) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return parse(filePath, channel, parallel);
+        }
+    }
+
+    private static Scene parse(String filePath, FileChannel channel, boolean parallel) throws IOException {
+        long size = channel.size();
+        int chunks = parallel ? Runtime.getRuntime().availableProcessors() * 2 : 1;
+        chunks = (int) Math.max(chunks, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        long[] bounds = lineAlignedBounds(channel, size, Math.max(chunks, 1));
+
+        MappedByteBuffer[] maps = new MappedByteBuffer[bounds.length - 1];
+        for (int c = 0; c < maps.length; c++) {
+            maps[c] = channel.map(FileChannel.MapMode.READ_ONLY, bounds[c], bounds[c + 1] - bounds[c]);
+        }
+
+        List<Chunk> parsed;
+        if (maps.length == 1) {
+            parsed = List.of(parseChunk(maps[0]));
+        } else {
+            parsed = IntStream.range(0, maps.length).parallel()
+                .mapToObj(c -> parseChunk(maps[c]))
+                .collect(Collectors.toList());
+        }
+        for (int c = 0; c < maps.length; c++) {
+            Chunk chunk = parsed.get(c);
+            if (chunk.errorPos >= 0) {
+                throw badCorner(filePath, maps, c, chunk.errorPos, chunk.errorReason);
+            }
+        }
+        return merge(filePath, maps, parsed);
+    }
+
+    // Chunk start offsets, each moved forward to just after the next newline
+    private static long[] lineAlignedBounds(FileChannel channel, long size, int chunks) throws IOException {
+        long[] bounds = new long[chunks + 1];
+        ByteBuffer window = ByteBuffer.allocate(4096);
+        int count = 1;
+        for (int c = 1; c < chunks; c++) {
+            long pos = Math.max(size * c / chunks, bounds[count - 1]);
+            pos = nextLineStart(channel, pos, size, window);
+            if (pos > bounds[count - 1] && pos < size) {
+                bounds[count++] = pos;
+            }
+        }
+        bounds[count++] = size;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    private static long nextLineStart(FileChannel channel, long pos, long size, ByteBuffer window) throws IOException {
+        while (pos < size) {
+            window.clear();
+            int read = channel.read(window, pos);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return pos + i + 1;
                 }
             }
+            pos += read;
         }
-        return scene;
+        return size;
     }
-}
 
-class Scene {
-    ArrayList<Vector3> vertices = new ArrayList<>();
-    ArrayList<Face> faces = new ArrayList<>();
-}
+    private static Chunk parseChunk(ByteBuffer buf) {
+        Chunk chunk = new Chunk();
+        int limit = buf.limit();
+        int[] cursor = new int[1];
+        int pos = 0;
 
-class Vector3 {
-    double x, y, z;
+        while (pos < limit) {
+            pos = skipSpaces(buf, pos, limit);
+            if (pos >= limit) break;
 
-    Vector3(double x, double y, double z) {
-        this.x = x;
-        this.y = y;
-        this.z = z;
+            byte c0 = buf.get(pos);
+            byte c1 = pos + 1 < limit ? buf.get(pos + 1) : (byte) '\n';
+            if (c0 == 'v' && isSpace(c1)) {
+                cursor[0] = pos + 1;
+                float x = parseFloat(buf, cursor, limit);
+                float y = parseFloat(buf, cursor, limit);
+                float z = parseFloat(buf, cursor, limit);
+                chunk.addVertex(x, y, z);
+                pos = cursor[0];
+            } else if (c0 == 'f' && isSpace(c1)) {
+                pos = parseFace(buf, pos + 1, limit, chunk);
+            }
+            pos = skipLine(buf, pos, limit);
+        }
+        return chunk;
     }
 
-    Vector3 add(Vector3 v) {
-        return new Vector3(x + v.x, y + v.y, z + v.z);
+    // Reads "f a b c ..." where each corner may be v, v/vt, v//vn or v/vt/vn; only v is kept.
+    // A malformed corner is recorded on the chunk and ends its parse.
+    private static int parseFace(ByteBuffer buf, int pos, int limit, Chunk chunk) {
+        int corners = 0;
+        chunk.beginFace(pos);
+        while (true) {
+            pos = skipSpaces(buf, pos, limit);
+            if (pos >= limit || isLineEnd(buf.get(pos))) break;
+
+            int start = pos;
+            boolean negative = buf.get(pos) == '-';
+            if (negative) pos++;
+            int value = 0;
+            int digits = 0;
+            boolean overflow = false;
+            while (pos < limit) {
+                byte b = buf.get(pos);
+                if (b < '0' || b > '9') break;
+                overflow |= value > (Integer.MAX_VALUE - (b - '0')) / 10;
+                value = value * 10 + (b - '0');
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || value == 0 || overflow) {
+                chunk.fail(start, digits == 0 ? "has no vertex index"
+                    : value == 0 ? "is index 0; OBJ indices start at 1" : "is out of range");
+                return limit;
+            }
+            chunk.addCorner(negative ? -value : value);
+            corners++;
+
+            // Skip the /vt/vn part of the corner
+            while (pos < limit && !isSpace(buf.get(pos)) && !isLineEnd(buf.get(pos))) {
+                pos++;
+            }
+        }
+        chunk.endFace(corners);
+        return pos;
     }
 
-    Vector3 subtract(Vector3 v) {
-        return new Vector3(x - v.x, y - v.y, z - v.z);
+    static float parseFloat(ByteBuffer buf, int[] cursor, int limit) {
+        int pos = skipSpaces(buf, cursor[0], limit);
+        int start = pos;
+
+        boolean negative = false;
+        if (pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+            negative = buf.get(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        while (pos < limit) {
+            byte b = buf.get(pos);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) digits++;
+                } else {
+                    exponent++;
+                }
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos < limit && buf.get(pos) == '.') {
+            pos++;
+            while (pos < limit) {
+                byte b = buf.get(pos);
+                if (b < '0' || b > '9') break;
+                seenDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                }
+                pos++;
+            }
+        }
+        if (pos < limit && (buf.get(pos) == 'e' || buf.get(pos) == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+                negativeExponent = buf.get(pos) == '-';
+                pos++;
+            }
+            int e = 0;
+            while (pos < limit) {
+                byte b = buf.get(pos);
+                if (b < '0' || b > '9') break;
+                e = Math.min(e * 10 + (b - '0'), 10000);
+                pos++;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        cursor[0] = pos;
+
+        if (!seenDigit) {
+            throw new NumberFormatException("Expected a number at byte " + start);
+        }
+
+        // Exact when both the mantissa and the power of ten are representable doubles,
+        // which covers everything an OBJ exporter writes; otherwise defer to the JDK
+        double value;
+        if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+        } else {
+            byte[] text = new byte[pos - start];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = buf.get(start + i);
+            }
+            return (float) Double.parseDouble(new String(text, java.nio.charset.StandardCharsets.US_ASCII));
+        }
+        return (float) (negative ? -value : value);
     }
 
-    Vector3 cross(Vector3 v) {
-        return new Vector3(
-            y * v.z - z * v.y,
-            z * v.x - x * v.z,
-            x * v.y - y * v.x
-        );
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
     }
 
-    Vector3 multiply(double scalar) {
-        return new Vector3(x * scalar, y * scalar, z * scalar);
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
     }
 
-    double dot(Vector3 v) {
-        return x * v.x + y * v.y + z * v.z;
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
     }
 
-    double length() {
-        return Math.sqrt(x * x + y * y + z * z);
+    private static int skipSpaces(ByteBuffer buf, int pos, int limit) {
+        while (pos < limit && isSpace(buf.get(pos))) pos++;
+        return pos;
     }
 
-    Vector3 normalize() {
-        double length = length();
-        return new Vector3(x / length, y / length, z / length);
+    private static int skipLine(ByteBuffer buf, int pos, int limit) {
+        while (pos < limit && buf.get(pos) != '\n') pos++;
+        return pos + 1;
     }
-}
 
-class Face {
-    int[] vertices;
+    private static Scene merge(String filePath, MappedByteBuffer[] maps, List<Chunk> chunks) throws IOException {
+        Scene scene = new Scene();
+        int vertexCount = 0, faceCount = 0, indexCount = 0;
+        for (Chunk c : chunks) {
+            vertexCount += c.vertexCount;
+            faceCount += c.faceCount;
+            indexCount += c.indexCount;
+        }
+
+        scene.vertices = new float[vertexCount * 3];
+        scene.faceIndices = new int[indexCount];
+        scene.faceStarts = new int[faceCount + 1];
+
+        int vertexOffset = 0, faceOffset = 0, indexOffset = 0;
+        for (int n = 0; n < chunks.size(); n++) {
+            Chunk c = chunks.get(n);
+            System.arraycopy(c.vertices, 0, scene.vertices, vertexOffset * 3, c.vertexCount * 3);
+            for (int i = 0; i < c.indexCount; i++) {
+                // Negative OBJ indices count back from the current vertex, so they need the chunk's offset
+                int index = c.indices[i];
+                int resolved = index > 0 ? index - 1 : vertexOffset + c.localRelative[i];
+                if (resolved < 0 || resolved >= vertexCount) {
+                    throw badCorner(filePath, maps, n, c.cornerPos(maps[n], i),
+                        "is outside the file's " + vertexCount + " vertices");
+                }
+                scene.faceIndices[indexOffset + i] = resolved;
+            }
+            for (int f = 0; f < c.faceCount; f++) {
+                scene.faceStarts[faceOffset + f] = indexOffset + c.faceStarts[f];
+            }
+            vertexOffset += c.vertexCount;
+            faceOffset += c.faceCount;
+            indexOffset += c.indexCount;
+        }
+        scene.faceStarts[faceCount] = indexCount;
+        scene.vertexCount = vertexCount;
+        scene.faceCount = faceCount;
+        return scene;
+    }
 
-    Face(int[] vertices) {
-        this.vertices = vertices;
+    // Only built on failure: counts the newlines before the corner to give its line number
+    private static IOException badCorner(String filePath, MappedByteBuffer[] maps, int chunk, int pos, String reason) {
+        long line = 1;
+        for (int c = 0; c <= chunk; c++) {
+            int end = c < chunk ? maps[c].limit() : pos;
+            for (int i = 0; i < end; i++) {
+                if (maps[c].get(i) == '\n') line++;
+            }
+        }
+        ByteBuffer buf = maps[chunk];
+        int end = pos;
+        while (end < buf.limit() && !isSpace(buf.get(end)) && !isLineEnd(buf.get(end))) end++;
+        byte[] token = new byte[end - pos];
+        buf.get(pos, token);
+        return new IOException(filePath + " line " + line + ": face corner \""
+            + new String(token, java.nio.charset.StandardCharsets.US_ASCII) + "\" " + reason);
+    }
+
+    // Growable per-chunk output
+    private static class Chunk {
+        float[] vertices = new float[3 * 1024];
+        int vertexCount;
+        int[] indices = new int[1024];
+        int[] localRelative = new int[1024];
+        int indexCount;
+        int[] faceStarts = new int[256];
+        int[] facePositions = new int[256];
+        int faceCount;
+        int errorPos = -1;
+        String errorReason;
+
+        void addVertex(float x, float y, float z) {
+            if (vertexCount * 3 + 3 > vertices.length) {
+                vertices = Arrays.copyOf(vertices, vertices.length * 2);
+            }
+            vertices[vertexCount * 3] = x;
+            vertices[vertexCount * 3 + 1] = y;
+            vertices[vertexCount * 3 + 2] = z;
+            vertexCount++;
+        }
+
+        void beginFace(int pos) {
+            if (faceCount == faceStarts.length) {
+                faceStarts = Arrays.copyOf(faceStarts, faceStarts.length * 2);
+                facePositions = Arrays.copyOf(facePositions, facePositions.length * 2);
+            }
+            faceStarts[faceCount] = indexCount;
+            facePositions[faceCount] = pos;
+        }
+
+        void addCorner(int index) {
+            if (indexCount == indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+                localRelative = Arrays.copyOf(localRelative, localRelative.length * 2);
+            }
+            indices[indexCount] = index;
+            localRelative[indexCount] = index < 0 ? vertexCount + index : 0;
+            indexCount++;
+        }
+
+        void endFace(int corners) {
+            if (corners > 0) {
+                faceCount++;
+            }
+        }
+
+        void fail(int pos, String reason) {
+            errorPos = pos;
+            errorReason = reason;
+        }
+
+        // Byte position of corner i, found again by walking its face's line
+        int cornerPos(ByteBuffer buf, int i) {
+            int face = Arrays.binarySearch(faceStarts, 0, faceCount, i);
+            if (face < 0) face = -face - 2;
+            int pos = facePositions[face];
+            for (int k = faceStarts[face]; ; k++) {
+                pos = skipSpaces(buf, pos, buf.limit());
+                if (k == i) return pos;
+                while (pos < buf.limit() && !isSpace(buf.get(pos)) && !isLineEnd(buf.get(pos))) pos++;
+            }
+        }
     }
 }
@@ -0,0 +1,197 @@
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+
+// Packs the whole particle system into flat vertex streams for ParticleRenderer:
+// one vertex per particle for the point pass and one indexed GL_LINES buffer for all
+// trails. Pure Java, so the packing can be exercised without a GL context.
+//
+// This is a copy, not a zero-copy upload of the store's columns: interpolation, the
+// trail ring order, culling, thinning and lensing all change what is drawn per frame.
+//
+// Vertex layout (FLOATS_PER_VERTEX floats): x, y, z, r, g, b, a, size
+public class ParticleBatch {
+
+    static final int FLOATS_PER_VERTEX = 8;
+    static final int BYTES_PER_VERTEX = FLOATS_PER_VERTEX * Float.BYTES;
+    // Largest distance, in pixels, between a lensed trail's middle point and where
+    // interpolating the offsets of its ends puts it, before every point is lensed
+    static final float LENSED_TOLERANCE_PIXELS = 2.0f;
+
+    final int capacity;
+    final FloatBuffer points;
+    final FloatBuffer trailVertices;
+    final IntBuffer trailIndices;
+
+    int pointCount;
+    int trailVertexCount;
+    int trailIndexCount;
+
+    public ParticleBatch(int capacity) {
+        this.capacity = capacity;
+        int trailLength = ParticleStore.TRAIL_LENGTH;
+        points = BufferUtils.createFloatBuffer(capacity * FLOATS_PER_VERTEX);
+        trailVertices = BufferUtils.createFloatBuffer(capacity * trailLength * FLOATS_PER_VERTEX);
+        trailIndices = BufferUtils.createIntBuffer(capacity * (trailLength - 1) * 2);
+    }
+
+    // Packs a snapshot, placing each particle alpha of the way from its previous
+    // position to its current one. Particles the visibility stage culls are skipped and
+    // the rest get its trail point count and point size LOD. Trails are cut to their
+    // newest maxTrail points first, then thinned evenly along what is left.
+    // With a lensing table positions are moved to where they appear through the lens
+    // before culling, to within LENSED_TOLERANCE_PIXELS; without one (null) they are
+    // drawn as stored.
+    public void pack(ParticleSnapshot p, float alpha, ParticleVisibility visibility, int maxTrail,
+                     LensingTable lensing) {
+        points.clear();
+        trailVertices.clear();
+        trailIndices.clear();
+        pointCount = 0;
+        trailVertexCount = 0;
+
+        ParticleStore s = p.particles;
+        float minDistance = p.blackHoleRadius * 1.1f;
+        for (int n = 0; n < p.count; n++) {
+            float distance = ParticleStore.getFloat(s.distance, n);
+            if (distance < minDistance) continue;
+
+            float r = ParticleStore.getFloat(s.colorR, n), g = ParticleStore.getFloat(s.colorG, n);
+            float b = ParticleStore.getFloat(s.colorB, n), life = ParticleStore.getFloat(s.life, n);
+            int count = ParticleStore.getInt(s.trailCount, n);
+
+            long head = s.trailSlot(n, 0);
+            float x = ParticleStore.getFloat(s.trailX, head);
+            float y = ParticleStore.getFloat(s.trailY, head);
+            float z = ParticleStore.getFloat(s.trailZ, head);
+            if (count > 1) {
+                long previous = s.trailSlot(n, 1);
+                float px = ParticleStore.getFloat(s.trailX, previous);
+                float py = ParticleStore.getFloat(s.trailY, previous);
+                float pz = ParticleStore.getFloat(s.trailZ, previous);
+                x = px + (x - px) * alpha;
+                y = py + (y - py) * alpha;
+                z = pz + (z - pz) * alpha;
+            }
+
+            count = Math.min(count, maxTrail);
+            long last = s.trailSlot(n, count - 1);
+            float lastX = ParticleStore.getFloat(s.trailX, last);
+            float lastY = ParticleStore.getFloat(s.trailY, last);
+            float lastZ = ParticleStore.getFloat(s.trailZ, last);
+
+            // With lensing the head and the last point go through the table, and after culling
+            // the middle point of a long trail. Points between them are moved by the lensing
+            // offset interpolated along the trail. Where the middle point shows the offset
+            // is far from linear, near the axis behind the hole, every point is lensed.
+            float headDx = 0.0f, headDy = 0.0f, headDz = 0.0f;
+            float lastDx = 0.0f, lastDy = 0.0f, lastDz = 0.0f;
+            if (lensing != null) {
+                lensing.apply(x, y, z);
+                headDx = lensing.lx - x;
+                headDy = lensing.ly - y;
+                headDz = lensing.lz - z;
+                lensing.apply(lastX, lastY, lastZ);
+                lastDx = lensing.lx - lastX;
+                lastDy = lensing.ly - lastY;
+                lastDz = lensing.lz - lastZ;
+                x += headDx;
+                y += headDy;
+                z += headDz;
+                lastX += lastDx;
+                lastY += lastDy;
+                lastZ += lastDz;
+            }
+            float ex = x - lastX;
+            float ey = y - lastY;
+            float ez = z - lastZ;
+            float extent = (float) Math.sqrt(ex * ex + ey * ey + ez * ez);
+            int drawn = visibility.classify(x, y, z, extent, count);
+            if (drawn < 0) continue;
+
+            // Offsets that differ by less than the tolerance between the ends are taken to be
+            // linear in between without looking at the middle
+            int middle = count - 1;
+            float middleDx = lastDx, middleDy = lastDy, middleDz = lastDz;
+            float toMiddle = 0.0f, toLast = 0.0f;
+            boolean lensEvery = false;
+            if (lensing != null && drawn > 2) {
+                float tolerance = LENSED_TOLERANCE_PIXELS * visibility.pixelSize;
+                float cx = lastDx - headDx, cy = lastDy - headDy, cz = lastDz - headDz;
+                if (cx * cx + cy * cy + cz * cz > tolerance * tolerance) {
+                    middle = (count - 1) / 2;
+                    long slot = s.trailSlot(n, middle);
+                    float mx = ParticleStore.getFloat(s.trailX, slot);
+                    float my = ParticleStore.getFloat(s.trailY, slot);
+                    float mz = ParticleStore.getFloat(s.trailZ, slot);
+                    lensing.apply(mx, my, mz);
+                    middleDx = lensing.lx - mx;
+                    middleDy = lensing.ly - my;
+                    middleDz = lensing.lz - mz;
+                    float t = middle / (float) (count - 1);
+                    float bx = middleDx - headDx - cx * t;
+                    float by = middleDy - headDy - cy * t;
+                    float bz = middleDz - headDz - cz * t;
+                    lensEvery = bx * bx + by * by + bz * bz > tolerance * tolerance;
+                    toLast = 1.0f / (count - 1 - middle);
+                }
+                toMiddle = 1.0f / middle;
+            }
+
+            // Trail, newest position first, fading out along its length. A thinned trail
+            // keeps drawn points spread evenly from the head to the last point.
+            int first = trailVertexCount;
+            putVertex(trailVertices, x, y, z, r, g, b, life, 0.0f);
+            for (int i = 1; i < drawn; i++) {
+                int k = (int) ((long) i * (count - 1) / (drawn - 1));
+                float fade = (1.0f - k / (float) count) * life;
+                float tx = lastX, ty = lastY, tz = lastZ;
+                if (k < count - 1) {
+                    long slot = s.trailSlot(n, k);
+                    tx = ParticleStore.getFloat(s.trailX, slot);
+                    ty = ParticleStore.getFloat(s.trailY, slot);
+                    tz = ParticleStore.getFloat(s.trailZ, slot);
+                    if (lensEvery) {
+                        lensing.apply(tx, ty, tz);
+                        tx = lensing.lx;
+                        ty = lensing.ly;
+                        tz = lensing.lz;
+                    } else if (lensing != null) {
+                        if (k <= middle) {
+                            float t = k * toMiddle;
+                            tx += headDx + (middleDx - headDx) * t;
+                            ty += headDy + (middleDy - headDy) * t;
+                            tz += headDz + (middleDz - headDz) * t;
+                        } else {
+                            float t = (k - middle) * toLast;
+                            tx += middleDx + (lastDx - middleDx) * t;
+                            ty += middleDy + (lastDy - middleDy) * t;
+                            tz += middleDz + (lastDz - middleDz) * t;
+                        }
+                    }
+                }
+                putVertex(trailVertices, tx, ty, tz, r, g, b, fade, 0.0f);
+                trailIndices.put(first + i - 1).put(first + i);
+            }
+            trailVertexCount += drawn;
+
+            // Main particle
+            float lensFactor = 1.0f + 0.7f * p.blackHoleRadius / distance;
+            float distortion = 1.0f + 0.3f * (float) Math.sin(ParticleStore.getFloat(s.angle, n) * 5);
+            float pointSize = ParticleStore.getFloat(s.size, n) * 120 * lensFactor * distortion * visibility.sizeScale;
+            putVertex(points, x, y, z, r * life, g * life, b * life, 1.0f, pointSize);
+            pointCount++;
+        }
+
+        trailIndexCount = trailIndices.position();
+        points.flip();
+        trailVertices.flip();
+        trailIndices.flip();
+    }
+
+    private static void putVertex(FloatBuffer buffer, float x, float y, float z,
+                                  float r, float g, float b, float a, float size) {
+        buffer.put(x).put(y).put(z).put(r).put(g).put(b).put(a).put(size);
+    }
+}
@@ -0,0 +1,65 @@
+import java.lang.reflect.Constructor;
+
+// Batch form of ParticleStore.update for one chunk of particles in TrailWarp.Mode.FAST,
+// giving bit for bit the same state and consuming the same random numbers.
+//
+// The only implementation, VectorParticleKernel, uses the incubating Vector API and is
+// kept in src-vector so the main sources build without extra flags. create() returns it
+// when the class is on the classpath and the JVM was started with
+// --add-modules jdk.incubator.vector, and null otherwise, in which case callers keep
+// the scalar loop. -Dbh.vector=false forces the scalar loop.
+public abstract class ParticleKernel {
+
+    private static final String MODULE = "jdk.incubator.vector";
+    private static final String IMPLEMENTATION = "VectorParticleKernel";
+
+    private static final Constructor<? extends ParticleKernel> CONSTRUCTOR;
+    private static final String STATUS;
+
+    static {
+        Constructor<? extends ParticleKernel> constructor = null;
+        String status;
+        if (!Boolean.parseBoolean(System.getProperty("bh.vector", "true"))) {
+            status = "scalar (disabled by -Dbh.vector=false)";
+        } else if (ModuleLayer.boot().findModule(MODULE).isEmpty()) {
+            status = "scalar (start with --add-modules " + MODULE + " for SIMD)";
+        } else {
+            try {
+                Class<? extends ParticleKernel> type = Class.forName(IMPLEMENTATION).asSubclass(ParticleKernel.class);
+                constructor = type.getDeclaredConstructor(ParticleStore.class);
+                status = (String) type.getDeclaredMethod("describeSpecies").invoke(null);
+            } catch (ClassNotFoundException e) {
+                status = "scalar (" + IMPLEMENTATION + " is not compiled; build src-vector)";
+            } catch (ReflectiveOperationException | LinkageError e) {
+                constructor = null;
+                status = "scalar (" + IMPLEMENTATION + " failed to load: " + e + ")";
+            }
+        }
+        CONSTRUCTOR = constructor;
+        STATUS = status;
+    }
+
+    // A kernel with its own scratch space, so one is needed per concurrently updated chunk
+    static ParticleKernel create(ParticleStore store) {
+        if (CONSTRUCTOR == null) {
+            return null;
+        }
+        try {
+            return CONSTRUCTOR.newInstance(store);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create " + IMPLEMENTATION, e);
+        }
+    }
+
+    static boolean available() {
+        return CONSTRUCTOR != null;
+    }
+
+    // Which update path create() gives, for reports
+    static String status() {
+        return STATUS;
+    }
+
+    // Same as store.update(from, to, deltaTime, random) with warpMode FAST
+    abstract void update(int from, int to, float deltaTime, ParticleRandom random);
+}
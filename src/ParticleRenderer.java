@@ -0,0 +1,145 @@
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+
+// Streams a ParticleBatch to the GPU and draws every trail and particle in two calls.
+// The buffers are orphaned with glBufferData before each upload so the driver never
+// has to wait for the previous frame to finish reading them.
+public class ParticleRenderer {
+
+    private static final String VERTEX_SHADER = """
+        #version 120
+        uniform mat4 viewProjection;
+        attribute vec3 position;
+        attribute vec4 color;
+        attribute float size;
+        varying vec4 vColor;
+        void main() {
+            vColor = color;
+            gl_PointSize = size;
+            gl_Position = viewProjection * vec4(position, 1.0);
+        }
+        """;
+
+    private static final String FRAGMENT_SHADER = """
+        #version 120
+        uniform bool roundPoints;
+        varying vec4 vColor;
+        void main() {
+            if (roundPoints) {
+                vec2 d = gl_PointCoord - vec2(0.5);
+                if (dot(d, d) > 0.25) discard;
+            }
+            gl_FragColor = vColor;
+        }
+        """;
+
+    private final int program;
+    private final int positionAttrib;
+    private final int colorAttrib;
+    private final int sizeAttrib;
+    private final int roundPointsUniform;
+    private final int viewProjectionUniform;
+    private long uploadedCamera = -1;  // CameraMatrices.rebuilds() when viewProjection was last set
+
+    private final int pointBuffer;
+    private final int trailBuffer;
+    private final int trailIndexBuffer;
+
+    public ParticleRenderer() {
+        program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        positionAttrib = glGetAttribLocation(program, "position");
+        colorAttrib = glGetAttribLocation(program, "color");
+        sizeAttrib = glGetAttribLocation(program, "size");
+        roundPointsUniform = glGetUniformLocation(program, "roundPoints");
+        viewProjectionUniform = glGetUniformLocation(program, "viewProjection");
+
+        pointBuffer = glGenBuffers();
+        trailBuffer = glGenBuffers();
+        trailIndexBuffer = glGenBuffers();
+    }
+
+    // Particles are drawn with the camera's matrix, not the GL matrix stack
+    public void draw(ParticleBatch batch, CameraMatrices camera) {
+        glUseProgram(program);
+        if (camera.rebuilds() != uploadedCamera) {
+            glUniformMatrix4fv(viewProjectionUniform, false, camera.combinedBuffer);
+            uploadedCamera = camera.rebuilds();
+        }
+        glEnable(GL_VERTEX_PROGRAM_POINT_SIZE);
+        glEnable(GL_POINT_SPRITE);
+
+        // All trails as one indexed line list
+        glBindBuffer(GL_ARRAY_BUFFER, trailBuffer);
+        glBufferData(GL_ARRAY_BUFFER, (long) batch.trailVertices.capacity() * Float.BYTES, GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, batch.trailVertices);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, trailIndexBuffer);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, (long) batch.trailIndices.capacity() * Integer.BYTES, GL_STREAM_DRAW);
+        glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 0, batch.trailIndices);
+
+        glUniform1i(roundPointsUniform, 0);
+        bindAttributes();
+        glDrawElements(GL_LINES, batch.trailIndexCount, GL_UNSIGNED_INT, 0L);
+
+        // All particles as one point list with a per-vertex size
+        glBindBuffer(GL_ARRAY_BUFFER, pointBuffer);
+        glBufferData(GL_ARRAY_BUFFER, (long) batch.points.capacity() * Float.BYTES, GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, batch.points);
+
+        glUniform1i(roundPointsUniform, 1);
+        bindAttributes();
+        glDrawArrays(GL_POINTS, 0, batch.pointCount);
+
+        glDisableVertexAttribArray(positionAttrib);
+        glDisableVertexAttribArray(colorAttrib);
+        glDisableVertexAttribArray(sizeAttrib);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glDisable(GL_POINT_SPRITE);
+        glDisable(GL_VERTEX_PROGRAM_POINT_SIZE);
+        glUseProgram(0);
+    }
+
+    public void dispose() {
+        glDeleteBuffers(pointBuffer);
+        glDeleteBuffers(trailBuffer);
+        glDeleteBuffers(trailIndexBuffer);
+        glDeleteProgram(program);
+    }
+
+    private void bindAttributes() {
+        int stride = ParticleBatch.BYTES_PER_VERTEX;
+        glEnableVertexAttribArray(positionAttrib);
+        glVertexAttribPointer(positionAttrib, 3, GL_FLOAT, false, stride, 0L);
+        glEnableVertexAttribArray(colorAttrib);
+        glVertexAttribPointer(colorAttrib, 4, GL_FLOAT, false, stride, 3L * Float.BYTES);
+        glEnableVertexAttribArray(sizeAttrib);
+        glVertexAttribPointer(sizeAttrib, 1, GL_FLOAT, false, stride, 7L * Float.BYTES);
+    }
+
+    static int createProgram(String vertexSource, String fragmentSource) {
+        int vertex = compileShader(GL_VERTEX_SHADER, vertexSource);
+        int fragment = compileShader(GL_FRAGMENT_SHADER, fragmentSource);
+
+        int program = glCreateProgram();
+        glAttachShader(program, vertex);
+        glAttachShader(program, fragment);
+        glLinkProgram(program);
+        if (glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE) {
+            throw new RuntimeException("Failed to link shader program: " + glGetProgramInfoLog(program));
+        }
+        glDeleteShader(vertex);
+        glDeleteShader(fragment);
+        return program;
+    }
+
+    private static int compileShader(int type, String source) {
+        int shader = glCreateShader(type);
+        glShaderSource(shader, source);
+        glCompileShader(shader);
+        if (glGetShaderi(shader, GL_COMPILE_STATUS) == GL_FALSE) {
+            throw new RuntimeException("Failed to compile shader: " + glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+}
@@ -0,0 +1,37 @@
+// Copy of the particle state after one simulation step. The simulation thread fills a
+// snapshot it owns and publishes it through a TripleBuffer; once handed over the
+// snapshot is never written again until the reader gives it back.
+//
+// The copy is an off-heap ParticleStore of its own holding the first capacity particles
+// of the simulation, so publishing is one memcpy per column. Trails keep the ring
+// layout; use particles.trailSlot(i, k) to find position k (k = 0 is the current one
+// and k = 1 the one from the previous step). Only the first count particles, the ones
+// the engine has active, are copied and valid.
+public class ParticleSnapshot implements AutoCloseable {
+
+    final int capacity;
+    final float blackHoleRadius;
+    final ParticleStore particles;
+
+    int count;
+    long step;
+    long timeNanos;
+
+    public ParticleSnapshot(int capacity, float blackHoleRadius, float eventHorizonRadius) {
+        this.capacity = capacity;
+        this.blackHoleRadius = blackHoleRadius;
+        this.particles = new ParticleStore(capacity, blackHoleRadius, eventHorizonRadius);
+    }
+
+    public void copyFrom(ParticleStore store, int active, long step, long timeNanos) {
+        count = Math.min(capacity, Math.min(active, store.capacity));
+        particles.copyFrom(store, count);
+        this.step = step;
+        this.timeNanos = timeNanos;
+    }
+
+    @Override
+    public void close() {
+        particles.close();
+    }
+}
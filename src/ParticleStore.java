@@ -0,0 +1,322 @@
+
+import static org.lwjgl.system.MemoryUtil.*;
+
+// Structure-of-arrays particle storage held off the Java heap. Every particle
+// attribute lives in its own 64-byte aligned column inside one native allocation and
+// the trail is a fixed ring buffer per particle, so stepping and drawing the whole
+// system never allocates and large systems do not need a large heap. Columns are
+// addressed by their base address through getFloat/putFloat/getInt/putInt.
+//
+// The memory is released by close(); the store must not be used afterwards.
+public class ParticleStore implements AutoCloseable {
+
+    static final int TRAIL_LENGTH = 8;
+
+    // FAST warp mode recomputes cos/sin exactly every this many incremental rotations
+    static final int ROTATION_RESYNC = 64;
+
+    private static final int ALIGNMENT = 64;
+    private static final int COLUMNS = 20;
+    private static final int TRAIL_COLUMNS = 3;
+    static final long BYTES_PER_PARTICLE = 4L * (COLUMNS + TRAIL_COLUMNS * TRAIL_LENGTH);
+
+    final int capacity;
+    final float blackHoleRadius;
+    final float eventHorizonRadius;
+
+    private long block;
+    final long bytes;
+
+    final long distance;
+    final long angle;
+    final long height;
+    final long speed;
+    final long size;
+    final long colorR;
+    final long colorG;
+    final long colorB;
+    final long life;
+
+    // cos/sin of angle, advanced by rotation in TrailWarp.Mode.FAST
+    final long cosAngle;
+    final long sinAngle;
+    final long rotationSteps; // int
+
+    final TrailWarp warp;
+    TrailWarp.Mode warpMode = TrailWarp.Mode.FAST;
+
+    // Spiral dynamics, per second unless noted; SweepRunner varies them between runs.
+    // Orbital speed at spawn is (minSpeed + u * speedRange) / d^2 for uniform u.
+    float radialDecay = 0.00005f;
+    float heightDamping = 0.998f;  // per step
+    float lifeDecay = 0.0001f;
+    float minSpeed = 0.3f;
+    float speedRange = 0.7f;
+
+    // Trail ring buffer, TRAIL_LENGTH slots per particle starting at i * TRAIL_LENGTH
+    final long trailX;
+    final long trailY;
+    final long trailZ;
+    final long trailHead;   // int, slot offset of the newest position
+    final long trailCount;  // int, number of valid positions
+
+    // Cartesian position and velocity, only maintained by GravityIntegrator
+    final long posX;
+    final long posY;
+    final long posZ;
+    final long velX;
+    final long velY;
+    final long velZ;
+
+    public ParticleStore(int capacity, float blackHoleRadius, float eventHorizonRadius) {
+        this(capacity, blackHoleRadius, eventHorizonRadius, true);
+    }
+
+    // Without zeroing, for a store the caller overwrites whole (see Checkpoint)
+    ParticleStore(int capacity, float blackHoleRadius, float eventHorizonRadius, boolean zeroed) {
+        this.capacity = capacity;
+        this.blackHoleRadius = blackHoleRadius;
+        this.eventHorizonRadius = eventHorizonRadius;
+
+        long column = align(4L * capacity);
+        long trailColumn = align(4L * capacity * TRAIL_LENGTH);
+        bytes = COLUMNS * column + TRAIL_COLUMNS * trailColumn;
+        block = nmemAlignedAlloc(ALIGNMENT, Math.max(bytes, ALIGNMENT));
+        if (block == NULL) {
+            throw new OutOfMemoryError("Could not allocate " + bytes + " bytes for " + capacity + " particles");
+        }
+        if (zeroed) {
+            memSet(block, 0, bytes);
+        }
+
+        long at = block;
+        distance = at; at += column;
+        angle = at; at += column;
+        height = at; at += column;
+        speed = at; at += column;
+        size = at; at += column;
+        colorR = at; at += column;
+        colorG = at; at += column;
+        colorB = at; at += column;
+        life = at; at += column;
+        cosAngle = at; at += column;
+        sinAngle = at; at += column;
+        rotationSteps = at; at += column;
+        trailHead = at; at += column;
+        trailCount = at; at += column;
+        posX = at; at += column;
+        posY = at; at += column;
+        posZ = at; at += column;
+        velX = at; at += column;
+        velY = at; at += column;
+        velZ = at; at += column;
+        trailX = at; at += trailColumn;
+        trailY = at; at += trailColumn;
+        trailZ = at;
+
+        warp = new TrailWarp(blackHoleRadius);
+    }
+
+    private static long align(long n) {
+        return (n + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    static float getFloat(long column, long i) {
+        return memGetFloat(column + (i << 2));
+    }
+
+    static void putFloat(long column, long i, float value) {
+        memPutFloat(column + (i << 2), value);
+    }
+
+    static int getInt(long column, long i) {
+        return memGetInt(column + (i << 2));
+    }
+
+    static void putInt(long column, long i, int value) {
+        memPutInt(column + (i << 2), value);
+    }
+
+    @Override
+    public void close() {
+        if (block != NULL) {
+            nmemAlignedFree(block);
+            block = NULL;
+        }
+    }
+
+    // Start of the native block holding every column, bytes long; the layout only
+    // depends on capacity, so two stores of equal capacity can be copied block to block
+    long address() {
+        checkOpen();
+        return block;
+    }
+
+    void checkOpen() {
+        if (block == NULL) {
+            throw new IllegalStateException("ParticleStore has been closed");
+        }
+    }
+
+    public String describeMemory() {
+        return String.format("%,d particles, %,.1f MB off-heap (%d bytes per particle)",
+            capacity, bytes / (1024.0 * 1024.0), BYTES_PER_PARTICLE);
+    }
+
+    // Copies the first count particles of another store, one memcpy per column. The
+    // Cartesian gravity state is left out; everything drawn is in the other columns.
+    public void copyFrom(ParticleStore source, int count) {
+        checkOpen();
+        long n = 4L * count;
+        memCopy(source.distance, distance, n);
+        memCopy(source.angle, angle, n);
+        memCopy(source.height, height, n);
+        memCopy(source.speed, speed, n);
+        memCopy(source.size, size, n);
+        memCopy(source.colorR, colorR, n);
+        memCopy(source.colorG, colorG, n);
+        memCopy(source.colorB, colorB, n);
+        memCopy(source.life, life, n);
+        memCopy(source.cosAngle, cosAngle, n);
+        memCopy(source.sinAngle, sinAngle, n);
+        memCopy(source.rotationSteps, rotationSteps, n);
+        memCopy(source.trailHead, trailHead, n);
+        memCopy(source.trailCount, trailCount, n);
+        memCopy(source.trailX, trailX, n * TRAIL_LENGTH);
+        memCopy(source.trailY, trailY, n * TRAIL_LENGTH);
+        memCopy(source.trailZ, trailZ, n * TRAIL_LENGTH);
+    }
+
+    public void seed(int from, int to, ParticleRandom random) {
+        checkOpen();
+        for (int i = from; i < to; i++) {
+            reset(i, random);
+        }
+    }
+
+    public void reset(int i, ParticleRandom random) {
+        float d = eventHorizonRadius + random.nextFloat() * 1.5f;
+        putFloat(distance, i, d);
+        putFloat(angle, i, random.nextFloat() * (float)Math.PI * 2);
+        syncRotation(i);
+        putFloat(height, i, (random.nextFloat() - 0.5f) * 0.1f);
+        putFloat(speed, i, (minSpeed + random.nextFloat() * speedRange) / (d * d));
+        putFloat(size, i, 0.015f + random.nextFloat() * 0.03f);
+
+        float tempFactor = 1.0f - (d - eventHorizonRadius) / 1.5f;
+        putFloat(colorR, i, 0.9f + tempFactor * 0.1f);
+        putFloat(colorG, i, 0.3f + tempFactor * 0.5f);
+        putFloat(colorB, i, 0.1f * tempFactor);
+
+        putInt(trailCount, i, 0);
+        addCurrentPositionToTrail(i);
+        putFloat(life, i, 1.0f);
+    }
+
+    public void update(int from, int to, float deltaTime, ParticleRandom random) {
+        checkOpen();
+        for (int i = from; i < to; i++) {
+            update(i, deltaTime, random);
+        }
+    }
+
+    public void update(int i, float deltaTime, ParticleRandom random) {
+        float previous = getFloat(angle, i);
+        float a = previous + getFloat(speed, i) * deltaTime;
+        putFloat(angle, i, a);
+        if (warpMode == TrailWarp.Mode.FAST) {
+            // Rotate by the step the angle column actually took so both stay in agreement
+            rotate(i, a - previous);
+        }
+        float d = getFloat(distance, i) - radialDecay * deltaTime;
+        putFloat(distance, i, d);
+        putFloat(height, i, getFloat(height, i) * heightDamping);
+        float l = getFloat(life, i) - lifeDecay * deltaTime;
+        putFloat(life, i, l);
+
+        addCurrentPositionToTrail(i);
+
+        if (d < eventHorizonRadius || l <= 0) {
+            reset(i, random);
+        }
+    }
+
+    void addCurrentPositionToTrail(int i) {
+        float d = getFloat(distance, i);
+        float x, y, z;
+        switch (warpMode) {
+            case FAST -> {
+                float s = getFloat(sinAngle, i);
+                x = d * getFloat(cosAngle, i);
+                z = d * s;
+                y = s * warp.lookup(d);
+            }
+            case TABLE -> {
+                float a = getFloat(angle, i);
+                float c = (float) Math.cos(a);
+                float s = (float) Math.sin(a);
+                x = d * c;
+                z = d * s;
+                y = s * warp.lookup(d);
+            }
+            default -> {
+                float a = getFloat(angle, i);
+                x = (float) (d * Math.cos(a));
+                z = (float) (d * Math.sin(a));
+                y = TrailWarp.exactY(d, a, blackHoleRadius);
+            }
+        }
+
+        pushTrail(i, x, y, z);
+    }
+
+    // Appends a position to the particle's trail ring buffer
+    void pushTrail(int i, float x, float y, float z) {
+        int count = getInt(trailCount, i);
+        int head = count == 0 ? 0 : (getInt(trailHead, i) + 1) % TRAIL_LENGTH;
+        long slot = (long) i * TRAIL_LENGTH + head;
+        putFloat(trailX, slot, x);
+        putFloat(trailY, slot, y);
+        putFloat(trailZ, slot, z);
+        putInt(trailHead, i, head);
+        if (count < TRAIL_LENGTH) {
+            putInt(trailCount, i, count + 1);
+        }
+    }
+
+    void syncRotation(int i) {
+        float a = getFloat(angle, i);
+        putFloat(cosAngle, i, (float) Math.cos(a));
+        putFloat(sinAngle, i, (float) Math.sin(a));
+        putInt(rotationSteps, i, 0);
+    }
+
+    // Advances cos/sin by a small angle with short Taylor series, renormalising with one
+    // Newton step; large steps and every ROTATION_RESYNC-th step fall back to Math.cos/sin
+    private void rotate(int i, float delta) {
+        int steps = getInt(rotationSteps, i) + 1;
+        if (steps >= ROTATION_RESYNC || Math.abs(delta) > 0.25f) {
+            syncRotation(i);
+            return;
+        }
+        putInt(rotationSteps, i, steps);
+        float d2 = delta * delta;
+        float sinDelta = delta * (1 - d2 / 6 * (1 - d2 / 20));
+        float cosDelta = 1 - d2 / 2 * (1 - d2 / 12 * (1 - d2 / 30));
+        float c = getFloat(cosAngle, i), s = getFloat(sinAngle, i);
+        float nc = c * cosDelta - s * sinDelta;
+        float ns = s * cosDelta + c * sinDelta;
+        float k = 1.5f - 0.5f * (nc * nc + ns * ns);
+        putFloat(cosAngle, i, nc * k);
+        putFloat(sinAngle, i, ns * k);
+    }
+
+    // Index into the trail columns of the k-th newest position (k = 0 is the particle itself)
+    long trailSlot(int i, int k) {
+        int offset = getInt(trailHead, i) - k;
+        if (offset < 0) {
+            offset += TRAIL_LENGTH;
+        }
+        return (long) i * TRAIL_LENGTH + offset;
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Steps a ParticleStore in fixed chunks. Each chunk owns its own ParticleRandom
+// stream split from a single seed, so the result for a given seed and thread count
+// is the same whether the chunks run on the pool or one after another.
+//
+// With a GravityIntegrator set, a step is two chunked passes (half drift, then kick and
+// drift) around a Barnes-Hut tree build instead of the parametric spiral update.
+//
+// When ParticleKernel.create gives a vector kernel, spiral steps in TrailWarp.Mode.FAST
+// run through it, one kernel per chunk; the result is identical to the scalar update.
+//
+// setActiveCount parks the particles past a count: spiral steps leave them untouched and
+// snapshots stop copying them, but their state stays in the store so raising the count
+// again resumes them where they stopped. Gravity steps move every particle, since a
+// parked particle would still pull on the others through the tree.
+public class ParticleUpdateEngine {
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ParticleStore store;
+    private final ForkJoinPool pool;
+    private final int[] chunkStart;
+    private final ParticleRandom[] streams;
+    private final ParticleKernel[] kernels; // null without a vector kernel
+    private final ChunkTask[] tasks;
+    private final RootTask root = new RootTask();
+
+    private boolean parallel = true;
+    private boolean vectorized = true;
+    private volatile int activeCount;
+    private int stepActive;
+    private float deltaTime;
+    private GravityIntegrator gravity;
+    private Pass pass = Pass.SPIRAL;
+
+    private enum Pass { SPIRAL, DRIFT, KICK_DRIFT }
+
+    public ParticleUpdateEngine(ParticleStore store, long seed, int threads) {
+        this.store = store;
+        this.pool = new ForkJoinPool(threads);
+        this.activeCount = store.capacity;
+
+        int chunks = Math.max(1, Math.min(store.capacity, threads * CHUNKS_PER_THREAD));
+        chunkStart = new int[chunks + 1];
+        for (int c = 0; c <= chunks; c++) {
+            chunkStart[c] = (int) ((long) store.capacity * c / chunks);
+        }
+
+        ParticleRandom rootRandom = new ParticleRandom(seed);
+        streams = new ParticleRandom[chunks];
+        tasks = new ChunkTask[chunks];
+        for (int c = 0; c < chunks; c++) {
+            streams[c] = rootRandom.split();
+            tasks[c] = new ChunkTask(c);
+        }
+
+        ParticleKernel[] created = new ParticleKernel[chunks];
+        for (int c = 0; c < chunks; c++) {
+            created[c] = ParticleKernel.create(store);
+        }
+        kernels = created[0] != null ? created : null;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    // May be called from any thread; takes effect at the next step
+    public void setActiveCount(int count) {
+        activeCount = Math.max(0, Math.min(count, store.capacity));
+    }
+
+    public int activeCount() {
+        return activeCount;
+    }
+
+    // Only has an effect when a vector kernel is available
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    public boolean isVectorized() {
+        return vectorized && kernels != null;
+    }
+
+    // The spiral update path in use, for reports
+    public String describeKernel() {
+        if (kernels != null && !vectorized) {
+            return "scalar (vector kernel turned off)";
+        }
+        return ParticleKernel.status();
+    }
+
+    // Switches to force-based dynamics starting from the current positions; null returns
+    // to the parametric spiral. Not while a step is running.
+    public void setGravity(GravityIntegrator gravity) {
+        this.gravity = gravity;
+        if (gravity != null) {
+            gravity.ensureChunks(streams.length);
+            gravity.initialize(store);
+        }
+    }
+
+    public GravityIntegrator gravity() {
+        return gravity;
+    }
+
+    public int chunkCount() {
+        return streams.length;
+    }
+
+    // Random stream state as (seed, gamma) pairs, one per chunk, for checkpoints
+    long[] randomState() {
+        long[] state = new long[streams.length * 2];
+        for (int c = 0; c < streams.length; c++) {
+            state[c * 2] = streams[c].seed();
+            state[c * 2 + 1] = streams[c].gamma();
+        }
+        return state;
+    }
+
+    // Not while a step is running; chunk boundaries depend on the thread count, so the
+    // state must come from an engine with the same number of chunks
+    void restoreRandomState(long[] state) {
+        if (state.length != streams.length * 2) {
+            throw new IllegalArgumentException("Random state has " + state.length / 2 + " streams, engine has "
+                + streams.length + " chunks; use the thread count the checkpoint was written with");
+        }
+        for (int c = 0; c < streams.length; c++) {
+            streams[c] = new ParticleRandom(state[c * 2], state[c * 2 + 1]);
+        }
+    }
+
+    // Gives every particle its initial state
+    public void seed() {
+        for (int c = 0; c < streams.length; c++) {
+            store.seed(chunkStart[c], chunkStart[c + 1], streams[c]);
+        }
+        if (gravity != null) {
+            gravity.initialize(store);
+        }
+    }
+
+    public void update(float deltaTime) {
+        this.deltaTime = deltaTime;
+        this.stepActive = activeCount;
+        if (gravity == null) {
+            runPass(Pass.SPIRAL);
+            return;
+        }
+        runPass(Pass.DRIFT);
+        gravity.buildTree(store, parallel ? pool : null);
+        runPass(Pass.KICK_DRIFT);
+    }
+
+    private void runPass(Pass pass) {
+        this.pass = pass;
+        if (parallel && streams.length > 1) {
+            root.reinitialize();
+            pool.invoke(root);
+        } else {
+            for (int c = 0; c < streams.length; c++) {
+                updateChunk(c);
+            }
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void updateChunk(int c) {
+        switch (pass) {
+            case SPIRAL -> {
+                int to = Math.min(chunkStart[c + 1], stepActive);
+                if (chunkStart[c] >= to) {
+                    return;
+                }
+                if (kernels != null && vectorized && store.warpMode == TrailWarp.Mode.FAST) {
+                    kernels[c].update(chunkStart[c], to, deltaTime, streams[c]);
+                } else {
+                    store.update(chunkStart[c], to, deltaTime, streams[c]);
+                }
+            }
+            case DRIFT -> gravity.drift(store, chunkStart[c], chunkStart[c + 1], deltaTime * 0.5f);
+            case KICK_DRIFT -> gravity.kickDrift(store, c, chunkStart[c], chunkStart[c + 1], deltaTime, streams[c]);
+        }
+    }
+
+    // Tasks are allocated once and reinitialized every step so a parallel update does not allocate
+    @SuppressWarnings("serial")
+    private final class ChunkTask extends RecursiveAction {
+        private final int chunk;
+
+        ChunkTask(int chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            updateChunk(chunk);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class RootTask extends RecursiveAction {
+        @Override
+        protected void compute() {
+            for (ChunkTask task : tasks) {
+                task.reinitialize();
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    // Measures sequential vs parallel step time, e.g. "java ParticleUpdateEngine 20000 1000000 10000000"
+    public static void main(String[] args) {
+        int[] counts = {20000, 1000000, 10000000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int count : counts) {
+            ParticleStore store = new ParticleStore(count, 0.4f, 0.6f);
+            ParticleUpdateEngine engine = new ParticleUpdateEngine(store, 42L, threads);
+            engine.seed();
+
+            engine.setParallel(false);
+            double sequential = timeSteps(engine);
+            engine.setParallel(true);
+            double parallel = timeSteps(engine);
+            engine.shutdown();
+            store.close();
+
+            System.out.printf("%,d particles: sequential %.3f ms, parallel %.3f ms (%d threads), speedup %.2fx%n",
+                count, sequential, parallel, threads, sequential / parallel);
+        }
+    }
+
+    private static double timeSteps(ParticleUpdateEngine engine) {
+        int warmup = 20;
+        int steps = 50;
+        for (int i = 0; i < warmup; i++) {
+            engine.update(0.016f);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < steps; i++) {
+            engine.update(0.016f);
+        }
+        return (System.nanoTime() - start) / 1e6 / steps;
+    }
+}
@@ -0,0 +1,76 @@
+// Per-frame visibility stage for the particle pass. Frustum planes are extracted from
+// the camera's combined projection * view matrix, which includes the scene pan and tilt,
+// so they live in the same space as the particle positions.
+// Each particle is tested as a sphere around its trail, and visible ones get a number of
+// trail points and a point size scaled to how large they appear on screen.
+public class ParticleVisibility {
+
+    // Trails are thinned until their evenly spaced points are at least this far apart on screen
+    static final float MIN_SEGMENT_PIXELS = 2.0f;
+    // Eye depth at which point sizes are drawn unscaled (the default camera distance)
+    static final float REFERENCE_DEPTH = 2.0f;
+    static final float MIN_SIZE_SCALE = 0.25f;
+    static final float MAX_SIZE_SCALE = 2.0f;
+
+    private float[] combined = new float[16];
+    private final float[] planes = new float[24];
+    private float pixelsPerUnitAtUnitDepth;
+
+    int tested;
+    int culled;
+
+    // Point size multiplier of the last particle passed to classify
+    float sizeScale = 1.0f;
+    // World units covered by one pixel at the depth of the last particle passed to classify
+    float pixelSize;
+
+    // Call after camera.update(); the camera's matrix is used in place, not copied
+    public void begin(CameraMatrices camera) {
+        float[] m = combined = camera.combined;
+
+        // Gribb/Hartmann: each plane is row 3 plus or minus row 0, 1 or 2 of the clip matrix
+        for (int p = 0; p < 6; p++) {
+            int row = p / 2;
+            float sign = (p % 2 == 0) ? 1.0f : -1.0f;
+            float a = m[3] + sign * m[row];
+            float b = m[7] + sign * m[4 + row];
+            float c = m[11] + sign * m[8 + row];
+            float d = m[15] + sign * m[12 + row];
+            float len = (float) Math.sqrt(a * a + b * b + c * c);
+            planes[p * 4] = a / len;
+            planes[p * 4 + 1] = b / len;
+            planes[p * 4 + 2] = c / len;
+            planes[p * 4 + 3] = d / len;
+        }
+
+        pixelsPerUnitAtUnitDepth = 0.5f * camera.viewportHeight() * camera.projection[5];
+        tested = 0;
+        culled = 0;
+    }
+
+    // Returns how many of its count trail points to draw, spread evenly over the trail, for
+    // a particle at (x, y, z) whose trail spans extent world units, or -1 if the particle is
+    // outside the frustum
+    public int classify(float x, float y, float z, float extent, int count) {
+        tested++;
+        for (int p = 0; p < 24; p += 4) {
+            if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -extent) {
+                culled++;
+                return -1;
+            }
+        }
+
+        float w = combined[3] * x + combined[7] * y + combined[11] * z + combined[15];
+        if (w <= 0.0f) {
+            sizeScale = MAX_SIZE_SCALE;
+            pixelSize = 0.0f;
+            return count;
+        }
+        sizeScale = Math.max(MIN_SIZE_SCALE, Math.min(REFERENCE_DEPTH / w, MAX_SIZE_SCALE));
+        pixelSize = w / pixelsPerUnitAtUnitDepth;
+
+        float projected = extent * pixelsPerUnitAtUnitDepth / w;
+        int points = 1 + (int) (projected / MIN_SEGMENT_PIXELS);
+        return Math.min(points, count);
+    }
+}
@@ -0,0 +1,94 @@
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+
+// Load-time mesh preparation: normals are computed once and interleaved with the
+// positions into a single vertex buffer with a matching triangle index buffer, ready
+// for GpuMesh. Vertex layout: x, y, z, nx, ny, nz.
+//
+// The index buffer may hold several levels of detail back to back (see MeshLod); level k
+// is the range [lodFirst[k], lodFirst[k + 1]).
+public class PreparedMesh {
+
+    enum NormalMode { SMOOTH, FLAT }
+
+    static final int FLOATS_PER_VERTEX = 6;
+    static final int BYTES_PER_VERTEX = FLOATS_PER_VERTEX * Float.BYTES;
+
+    final FloatBuffer vertices;
+    final IntBuffer indices;
+    final int vertexCount;
+    final int indexCount;
+    final int[] lodFirst;
+
+    PreparedMesh(FloatBuffer vertices, IntBuffer indices, int vertexCount, int indexCount) {
+        this(vertices, indices, vertexCount, indexCount, new int[] {0, indexCount});
+    }
+
+    PreparedMesh(FloatBuffer vertices, IntBuffer indices, int vertexCount, int indexCount, int[] lodFirst) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.vertexCount = vertexCount;
+        this.indexCount = indexCount;
+        this.lodFirst = lodFirst;
+    }
+
+    public static PreparedMesh prepare(CompiledMesh mesh, NormalMode mode) {
+        float[] positions = new float[mesh.vertexCount * 3];
+        int[] indices = new int[mesh.indexCount];
+        mesh.positions.get(0, positions);
+        mesh.indices.get(0, indices);
+
+        if (mode == NormalMode.SMOOTH) {
+            // The compiled mesh already carries smooth normals
+            float[] normals = new float[positions.length];
+            mesh.normals.get(0, normals);
+            return interleave(positions, normals, indices);
+        }
+        return prepare(positions, indices, mode);
+    }
+
+    public static PreparedMesh prepare(float[] positions, int[] indices, NormalMode mode) {
+        if (mode == NormalMode.SMOOTH) {
+            return interleave(positions, CompiledMesh.smoothNormals(positions, indices), indices);
+        }
+
+        // Flat shading needs its own copy of each corner so every triangle can carry its face normal
+        FloatBuffer vertices = BufferUtils.createFloatBuffer(indices.length * FLOATS_PER_VERTEX);
+        IntBuffer flatIndices = BufferUtils.createIntBuffer(indices.length);
+        float[] v = positions;
+        for (int t = 0; t + 2 < indices.length; t += 3) {
+            int i0 = indices[t] * 3, i1 = indices[t + 1] * 3, i2 = indices[t + 2] * 3;
+            float e1x = v[i1] - v[i0], e1y = v[i1 + 1] - v[i0 + 1], e1z = v[i1 + 2] - v[i0 + 2];
+            float e2x = v[i2] - v[i0], e2y = v[i2 + 1] - v[i0 + 1], e2z = v[i2 + 2] - v[i0 + 2];
+            float nx = e1y * e2z - e1z * e2y;
+            float ny = e1z * e2x - e1x * e2z;
+            float nz = e1x * e2y - e1y * e2x;
+            float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (len > 0) {
+                nx /= len;
+                ny /= len;
+                nz /= len;
+            }
+            vertices.put(v[i0]).put(v[i0 + 1]).put(v[i0 + 2]).put(nx).put(ny).put(nz);
+            vertices.put(v[i1]).put(v[i1 + 1]).put(v[i1 + 2]).put(nx).put(ny).put(nz);
+            vertices.put(v[i2]).put(v[i2 + 1]).put(v[i2 + 2]).put(nx).put(ny).put(nz);
+            flatIndices.put(t).put(t + 1).put(t + 2);
+        }
+        vertices.flip();
+        flatIndices.flip();
+        return new PreparedMesh(vertices, flatIndices, indices.length, indices.length);
+    }
+
+    private static PreparedMesh interleave(float[] positions, float[] normals, int[] indices) {
+        int vertexCount = positions.length / 3;
+        FloatBuffer vertices = BufferUtils.createFloatBuffer(vertexCount * FLOATS_PER_VERTEX);
+        for (int i = 0; i < positions.length; i += 3) {
+            vertices.put(positions, i, 3).put(normals, i, 3);
+        }
+        vertices.flip();
+        IntBuffer indexBuffer = BufferUtils.createIntBuffer(indices.length).put(indices).flip();
+        return new PreparedMesh(vertices, indexBuffer, vertexCount, indices.length);
+    }
+}
@@ -0,0 +1,153 @@
+// Keeps the frame cost inside a budget by trading visual detail for time, for machines
+// where the default particle count, trails, rings and core mesh either stutter or leave
+// headroom unused. Each frame's cost is smoothed; when it stays above the budget the
+// governor steps down one quality level, and when it stays well below it steps back up.
+//
+// Hysteresis comes from three places: separate thresholds for going down and up, a
+// much longer wait before going up, and a hold after every change while the smoothed
+// cost settles. An upgrade that has to be undone soon after doubles the wait for the
+// next one (up to MAX_BACKOFF times), so a level that does not fit is not retried
+// every few seconds; a level that holds for a while resets the wait.
+//
+// Levels give up the least visible detail first: trail length and ring segments, then
+// the core mesh LOD, then active particles. Particles beyond the active count are
+// parked by ParticleUpdateEngine, not freed, so raising the count again costs nothing.
+//
+// java QualityGovernor runs the governor against a synthetic load and prints every change.
+public class QualityGovernor {
+
+    // Fraction of particles kept active, trail points drawn, photon ring segments and
+    // levels added to the core mesh LOD chosen by distance
+    record Level(float particles, int trailLength, int ringSegments, int coreLodBias) { }
+
+    static final Level[] LEVELS = {
+        new Level(1.00f, 8, 256, 0),
+        new Level(1.00f, 6, 192, 0),
+        new Level(0.80f, 6, 128, 0),
+        new Level(0.65f, 5, 128, 1),
+        new Level(0.50f, 4, 96, 1),
+        new Level(0.40f, 3, 64, 2),
+        new Level(0.30f, 2, 48, 2),
+        new Level(0.25f, 2, 32, 3),
+    };
+
+    static final float SMOOTHING = 0.1f;       // weight of the newest frame in the average
+    static final float DOWNGRADE_LOAD = 0.95f; // of the budget
+    static final float UPGRADE_LOAD = 0.70f;
+    static final int DOWNGRADE_FRAMES = 10;
+    static final int UPGRADE_FRAMES = 90;
+    static final int HOLD_FRAMES = 30;
+    static final int PROBATION_FRAMES = 300;   // an upgrade undone within this many frames failed
+    static final int MAX_BACKOFF = 16;
+
+    final long budgetNanos;
+
+    private int level;
+    private float smoothed = -1.0f;
+    private int overFrames;
+    private int underFrames;
+    private int holdFrames;
+    private int framesSinceUpgrade = Integer.MAX_VALUE;
+    private int backoff = 1;
+    private int changes;
+
+    public QualityGovernor(float budgetMillis) {
+        if (!(budgetMillis > 0.0f)) {
+            throw new IllegalArgumentException("Frame budget must be positive: " + budgetMillis);
+        }
+        this.budgetNanos = (long) (budgetMillis * 1e6);
+    }
+
+    // Feeds one frame's cost; returns true when the level changed
+    public boolean update(long frameNanos) {
+        smoothed = smoothed < 0.0f ? frameNanos : smoothed + (frameNanos - smoothed) * SMOOTHING;
+        if (framesSinceUpgrade < Integer.MAX_VALUE) {
+            framesSinceUpgrade++;
+        }
+        if (framesSinceUpgrade == PROBATION_FRAMES) {
+            backoff = 1;
+        }
+        if (holdFrames > 0) {
+            holdFrames--;
+            return false;
+        }
+
+        float load = smoothed / budgetNanos;
+        overFrames = load > DOWNGRADE_LOAD ? overFrames + 1 : 0;
+        underFrames = load < UPGRADE_LOAD ? underFrames + 1 : 0;
+
+        if (overFrames >= DOWNGRADE_FRAMES && level + 1 < LEVELS.length) {
+            if (framesSinceUpgrade < PROBATION_FRAMES) {
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+            framesSinceUpgrade = Integer.MAX_VALUE;
+            return change(level + 1);
+        }
+        if (underFrames >= UPGRADE_FRAMES * backoff && level > 0) {
+            framesSinceUpgrade = 0;
+            return change(level - 1);
+        }
+        return false;
+    }
+
+    private boolean change(int to) {
+        level = to;
+        overFrames = 0;
+        underFrames = 0;
+        holdFrames = HOLD_FRAMES;
+        changes++;
+        return true;
+    }
+
+    public Level level() {
+        return LEVELS[level];
+    }
+
+    public int levelIndex() {
+        return level;
+    }
+
+    public int changes() {
+        return changes;
+    }
+
+    public float smoothedMillis() {
+        return Math.max(smoothed, 0.0f) / 1e6f;
+    }
+
+    public static int activeParticles(Level level, int capacity) {
+        return Math.max(1, Math.round(capacity * level.particles));
+    }
+
+    public String describe() {
+        Level l = level();
+        return String.format("quality %d/%d: %.0f%% particles, trails %d, rings %d, core LOD +%d (%.2f of %.2f ms)",
+            level, LEVELS.length - 1, l.particles * 100, l.trailLength, l.ringSegments, l.coreLodBias,
+            smoothedMillis(), budgetNanos / 1e6);
+    }
+
+    // Synthetic load: a fixed cost plus parts that scale with each setting, and a slowdown
+    // from frame 1200 to 2400 standing in for another application competing for the GPU.
+    // "java QualityGovernor 8.3 4" uses an 8.3 ms budget and a machine 4x slower than the default.
+    public static void main(String[] args) {
+        float budget = args.length > 0 ? Float.parseFloat(args[0]) : 16.6f;
+        float slowness = args.length > 1 ? Float.parseFloat(args[1]) : 3.0f;
+        QualityGovernor governor = new QualityGovernor(budget);
+        java.util.Random noise = new java.util.Random(1);
+
+        System.out.println("frame  " + governor.describe());
+        for (int frame = 0; frame < 4800; frame++) {
+            Level l = governor.level();
+            double millis = 2.0 + slowness * (4.0 * l.particles + 0.25 * l.trailLength + l.ringSegments / 256.0
+                + 0.5 / (1 + l.coreLodBias));
+            if (frame >= 1200 && frame < 2400) {
+                millis *= 1.6;
+            }
+            millis *= 1.0 + 0.1 * noise.nextGaussian();
+            if (governor.update((long) (millis * 1e6))) {
+                System.out.printf("%5d  %s%n", frame, governor.describe());
+            }
+        }
+        System.out.printf("%d changes in 4800 frames%n", governor.changes());
+    }
+}
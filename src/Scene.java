@@ -0,0 +1,10 @@
+
+// Parsed mesh: packed x, y, z vertex positions and polygon faces stored back to back.
+// Face f uses faceIndices[faceStarts[f]] .. faceIndices[faceStarts[f + 1] - 1].
+class Scene {
+    float[] vertices = new float[0];
+    int vertexCount;
+    int[] faceIndices = new int[0];
+    int[] faceStarts = {0};
+    int faceCount;
+}
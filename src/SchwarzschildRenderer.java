@@ -0,0 +1,531 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.stb.STBImageWrite;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.util.tinyexr.EXRChannelInfo;
+import org.lwjgl.util.tinyexr.EXRHeader;
+import org.lwjgl.util.tinyexr.EXRImage;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.util.tinyexr.TinyEXR.*;
+
+// Offline CPU renderer for publication stills. Every pixel traces a null geodesic of
+// the Schwarzschild metric backwards from the camera, so the lensed disk, its
+// secondary images and the shadow come out of the physics instead of the viewer's
+// ring and warp approximations. Tiles are split recursively on a ForkJoinPool, so idle
+// workers steal the remaining halves and all cores stay busy however uneven the tiles.
+//
+// Scene units match the simulation: blackHoleRadius is the Schwarzschild radius and
+// the accretion disk spans the radii particles are seeded in (eventHorizonRadius to
+// eventHorizonRadius + 1.5), coloured with the particle temperature formula.
+//
+//   java SchwarzschildRenderer --width 1920 --height 1080 --samples 2 --output still.png
+//   java SchwarzschildRenderer --output still.exr   (linear HDR, half floats)
+public class SchwarzschildRenderer {
+
+    static final int TILE_SIZE = 32;
+    static final int MAX_STEPS = 4000;
+
+    int width = 1280;
+    int height = 720;
+    int samples = 1;           // samples per pixel along each axis
+    int threads = Runtime.getRuntime().availableProcessors();
+    float fov = 55.0f;         // vertical, degrees
+    float cameraDistance = 4.0f;
+    float elevation = 12.0f;   // degrees above the disk plane
+    float exposure = 1.0f;
+    float blackHoleRadius = 0.4f;
+    float eventHorizonRadius = 0.6f;
+    String output = "blackhole.png";
+
+    float[] pixels;            // linear RGB, row 0 at the top
+    final LongAdder integrationSteps = new LongAdder();
+    long elapsedNanos;
+
+    // Camera basis, derived in render()
+    private float eyeX, eyeY, eyeZ;
+    private float rightX, rightY, rightZ;
+    private float upX, upY, upZ;
+    private float forwardX, forwardY, forwardZ;
+    private float tanHalfFov;
+
+    private float diskInner, diskOuter, escapeRadius;
+
+    public void render() {
+        pixels = new float[width * height * 3];
+        diskInner = eventHorizonRadius;
+        diskOuter = eventHorizonRadius + 1.5f;
+        escapeRadius = Math.max(cameraDistance, diskOuter) * 4.0f;
+
+        double e = Math.toRadians(elevation);
+        eyeX = 0.0f;
+        eyeY = (float) (cameraDistance * Math.sin(e));
+        eyeZ = (float) (cameraDistance * Math.cos(e));
+        float inv = 1.0f / cameraDistance;
+        forwardX = -eyeX * inv; forwardY = -eyeY * inv; forwardZ = -eyeZ * inv;
+        // right = forward x worldUp, up = right x forward
+        rightX = -forwardZ; rightY = 0.0f; rightZ = forwardX;
+        float rl = (float) Math.sqrt(rightX * rightX + rightZ * rightZ);
+        rightX /= rl; rightZ /= rl;
+        upX = rightY * forwardZ - rightZ * forwardY;
+        upY = rightZ * forwardX - rightX * forwardZ;
+        upZ = rightX * forwardY - rightY * forwardX;
+        tanHalfFov = (float) Math.tan(Math.toRadians(fov) * 0.5);
+
+        int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            pool.invoke(new TileTask(0, tilesX * tilesY, tilesX));
+        } finally {
+            pool.shutdown();
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    // Renders tiles [from, to); ranges are halved until one tile is left so the pool can steal
+    @SuppressWarnings("serial")
+    private final class TileTask extends RecursiveAction {
+        private final int from, to, tilesX;
+
+        TileTask(int from, int to, int tilesX) {
+            this.from = from;
+            this.to = to;
+            this.tilesX = tilesX;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    renderTile(from % tilesX * TILE_SIZE, from / tilesX * TILE_SIZE);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TileTask(from, mid, tilesX), new TileTask(mid, to, tilesX));
+        }
+    }
+
+    private void renderTile(int x0, int y0) {
+        int x1 = Math.min(x0 + TILE_SIZE, width);
+        int y1 = Math.min(y0 + TILE_SIZE, height);
+        float[] color = new float[3];
+        long steps = 0;
+        float aspect = (float) width / height;
+        float weight = 1.0f / (samples * samples);
+
+        for (int py = y0; py < y1; py++) {
+            for (int px = x0; px < x1; px++) {
+                float r = 0, g = 0, b = 0;
+                for (int sy = 0; sy < samples; sy++) {
+                    for (int sx = 0; sx < samples; sx++) {
+                        float u = (2.0f * (px + (sx + 0.5f) / samples) / width - 1.0f) * tanHalfFov * aspect;
+                        float v = (1.0f - 2.0f * (py + (sy + 0.5f) / samples) / height) * tanHalfFov;
+                        float dx = forwardX + u * rightX + v * upX;
+                        float dy = forwardY + u * rightY + v * upY;
+                        float dz = forwardZ + u * rightZ + v * upZ;
+                        steps += trace(dx, dy, dz, color);
+                        r += color[0];
+                        g += color[1];
+                        b += color[2];
+                    }
+                }
+                int o = (py * width + px) * 3;
+                pixels[o] = r * weight;
+                pixels[o + 1] = g * weight;
+                pixels[o + 2] = b * weight;
+            }
+        }
+        integrationSteps.add(steps);
+    }
+
+    // Traces one ray from the eye along (dx, dy, dz) and writes its radiance into color.
+    // In Schwarzschild coordinates a photon's spatial path obeys
+    //   d2x/dl2 = -1.5 * rs * h^2 * x / r^5,  h = |x cross dx/dl| (conserved)
+    // which is integrated with RK4, using steps proportional to r. The disk is optically
+    // thin: each crossing adds emission and attenuates what lies behind. Returns the step count.
+    int trace(float dx, float dy, float dz, float[] color) {
+        double len = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        double x = eyeX, y = eyeY, z = eyeZ;
+        double vx = dx / len, vy = dy / len, vz = dz / len;
+        double hx = y * vz - z * vy, hy = z * vx - x * vz, hz = x * vy - y * vx;
+        double k = -1.5 * blackHoleRadius * (hx * hx + hy * hy + hz * hz);
+        double rs = blackHoleRadius;
+
+        float r = 0, g = 0, b = 0;
+        float transmittance = 1.0f;
+        int step = 0;
+        for (; step < MAX_STEPS; step++) {
+            double radius = Math.sqrt(x * x + y * y + z * z);
+            if (radius < rs) {
+                transmittance = 0.0f; // captured
+                break;
+            }
+            if (radius > escapeRadius && x * vx + y * vy + z * vz > 0) {
+                break;
+            }
+
+            double h = Math.min(0.02 * radius * Math.max(1.0, (radius - rs) / rs * 0.5), 0.5);
+            if (radius < 2.5 * rs) {
+                h = Math.min(h, 0.05 * (radius - rs) + 0.002);
+            }
+
+            // RK4 on (position, velocity)
+            double a1x, a1y, a1z, a2x, a2y, a2z, a3x, a3y, a3z, a4x, a4y, a4z;
+            double f = k / Math.pow(radius, 5);
+            a1x = f * x; a1y = f * y; a1z = f * z;
+
+            double x2 = x + 0.5 * h * vx, y2 = y + 0.5 * h * vy, z2 = z + 0.5 * h * vz;
+            double v2x = vx + 0.5 * h * a1x, v2y = vy + 0.5 * h * a1y, v2z = vz + 0.5 * h * a1z;
+            f = k / Math.pow(Math.sqrt(x2 * x2 + y2 * y2 + z2 * z2), 5);
+            a2x = f * x2; a2y = f * y2; a2z = f * z2;
+
+            double x3 = x + 0.5 * h * v2x, y3 = y + 0.5 * h * v2y, z3 = z + 0.5 * h * v2z;
+            double v3x = vx + 0.5 * h * a2x, v3y = vy + 0.5 * h * a2y, v3z = vz + 0.5 * h * a2z;
+            f = k / Math.pow(Math.sqrt(x3 * x3 + y3 * y3 + z3 * z3), 5);
+            a3x = f * x3; a3y = f * y3; a3z = f * z3;
+
+            double x4 = x + h * v3x, y4 = y + h * v3y, z4 = z + h * v3z;
+            double v4x = vx + h * a3x, v4y = vy + h * a3y, v4z = vz + h * a3z;
+            f = k / Math.pow(Math.sqrt(x4 * x4 + y4 * y4 + z4 * z4), 5);
+            a4x = f * x4; a4y = f * y4; a4z = f * z4;
+
+            double nx = x + h / 6 * (vx + 2 * v2x + 2 * v3x + v4x);
+            double ny = y + h / 6 * (vy + 2 * v2y + 2 * v3y + v4y);
+            double nz = z + h / 6 * (vz + 2 * v2z + 2 * v3z + v4z);
+            vx += h / 6 * (a1x + 2 * a2x + 2 * a3x + a4x);
+            vy += h / 6 * (a1y + 2 * a2y + 2 * a3y + a4y);
+            vz += h / 6 * (a1z + 2 * a2z + 2 * a3z + a4z);
+
+            // Disk plane crossing, located by linear interpolation within the step
+            if ((y > 0) != (ny > 0)) {
+                double t = y / (y - ny);
+                double cx = x + (nx - x) * t, cz = z + (nz - z) * t;
+                double cr = Math.sqrt(cx * cx + cz * cz);
+                if (cr >= diskInner && cr <= diskOuter) {
+                    float opacity = diskEmission(cx, cz, cr, vx, vy, vz, color);
+                    r += transmittance * color[0];
+                    g += transmittance * color[1];
+                    b += transmittance * color[2];
+                    transmittance *= 1.0f - opacity;
+                    if (transmittance < 0.01f) {
+                        transmittance = 0.0f;
+                        break;
+                    }
+                }
+            }
+            x = nx;
+            y = ny;
+            z = nz;
+        }
+
+        if (transmittance > 0.0f) {
+            sky(vx, vy, vz, color);
+            r += transmittance * color[0];
+            g += transmittance * color[1];
+            b += transmittance * color[2];
+        }
+        color[0] = r;
+        color[1] = g;
+        color[2] = b;
+        return step;
+    }
+
+    // Emission of the disk at (x, 0, z) seen by a photon travelling along v (towards the
+    // eye after reversal). Colour follows ParticleStore.reset; brightness carries the
+    // Doppler and gravitational shift g^4 of gas on circular orbits, which turn the same
+    // way particles do (increasing angle). Returns the opacity of the crossing.
+    private float diskEmission(double x, double z, double radius, double vx, double vy, double vz, float[] color) {
+        double rs = blackHoleRadius;
+        float tempFactor = (float) (1.0 - (radius - eventHorizonRadius) / 1.5);
+
+        double beta = Math.min(Math.sqrt(rs / (2.0 * Math.max(radius - rs, 1e-6))), 0.99);
+        double gamma = 1.0 / Math.sqrt(1.0 - beta * beta);
+        // Orbital direction (-sin a, 0, cos a), photon direction towards the eye is -v
+        double speed = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        double cosTheta = ((z / radius) * vx - (x / radius) * vz) / speed;
+        double doppler = 1.0 / (gamma * (1.0 - beta * cosTheta));
+        double shift = doppler * Math.sqrt(1.0 - rs / radius);
+        float intensity = (float) Math.pow(shift, 4) * (0.3f + 1.7f * tempFactor * tempFactor);
+
+        // Soft edges so the disk does not end in a hard ring
+        float edge = (float) Math.min(1.0, Math.min((radius - diskInner) / 0.05, (diskOuter - radius) / 0.4));
+        float opacity = 0.85f * edge;
+        color[0] = (0.9f + tempFactor * 0.1f) * intensity * opacity;
+        color[1] = (0.3f + tempFactor * 0.5f) * intensity * opacity;
+        color[2] = (0.1f * tempFactor + 0.02f) * intensity * opacity;
+        return opacity;
+    }
+
+    // Procedural star field on a direction grid, so lensing of the background is visible
+    private static void sky(double vx, double vy, double vz, float[] color) {
+        double len = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        double theta = Math.acos(Math.max(-1.0, Math.min(vy / len, 1.0)));
+        double phi = Math.atan2(vz, vx) + Math.PI;
+        double cells = 220.0;
+        double u = phi / (2 * Math.PI) * cells * 2, v = theta / Math.PI * cells;
+        long cu = (long) Math.floor(u), cv = (long) Math.floor(v);
+        long hash = mix(cu * 0x9E3779B97F4A7C15L ^ cv * 0xC2B2AE3D27D4EB4FL);
+
+        float base = 0.004f;
+        color[0] = base;
+        color[1] = base;
+        color[2] = base * 1.6f;
+        if ((hash & 0xFF) < 26) {
+            double sx = cu + 0.2 + 0.6 * ((hash >>> 8) & 0xFF) / 255.0;
+            double sy = cv + 0.2 + 0.6 * ((hash >>> 16) & 0xFF) / 255.0;
+            double d2 = (u - sx) * (u - sx) + (v - sy) * (v - sy);
+            float brightness = (float) (Math.exp(-d2 * 40.0) * (0.5 + 2.5 * ((hash >>> 24) & 0xFF) / 255.0));
+            float tint = ((hash >>> 32) & 0xFF) / 255.0f;
+            color[0] += brightness * (0.8f + 0.2f * tint);
+            color[1] += brightness * 0.85f;
+            color[2] += brightness * (1.0f - 0.2f * tint);
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public void write(String path) throws IOException {
+        if (path.toLowerCase().endsWith(".exr")) {
+            writeExr(path);
+        } else {
+            writePng(path);
+        }
+    }
+
+    // Tone mapped (1 - exp(-exposure * c)) and gamma encoded 8-bit PNG through stb_image_write.
+    // Falls back to ImageIO where the stb natives are not available.
+    void writePng(String path) throws IOException {
+        ByteBuffer rgb = ByteBuffer.allocateDirect(width * height * 3);
+        for (int i = 0; i < width * height * 3; i++) {
+            float mapped = 1.0f - (float) Math.exp(-exposure * pixels[i]);
+            rgb.put(i, (byte) Math.round(255.0f * (float) Math.pow(mapped, 1.0 / 2.2)));
+        }
+        try {
+            if (!STBImageWrite.stbi_write_png(path, width, height, 3, rgb, width * 3)) {
+                throw new IOException("stb_image_write could not write " + path);
+            }
+            return;
+        } catch (LinkageError e) {
+            // No natives for this platform
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int p = 0; p < width * height; p++) {
+            int c = (rgb.get(p * 3) & 0xFF) << 16 | (rgb.get(p * 3 + 1) & 0xFF) << 8 | (rgb.get(p * 3 + 2) & 0xFF);
+            image.setRGB(p % width, p / width, c);
+        }
+        ImageIO.write(image, "png", new File(path));
+    }
+
+    // Linear HDR radiance as a ZIP compressed half float EXR through tinyexr. Falls back to
+    // an uncompressed EXR written here where the tinyexr natives are not available.
+    void writeExr(String path) throws IOException {
+        try {
+            writeCompressedExr(path);
+        } catch (LinkageError e) {
+            writeUncompressedExr(path);
+        }
+    }
+
+    private void writeCompressedExr(String path) throws IOException {
+        int n = width * height;
+        // EXR readers expect channels sorted by name: B, G, R
+        FloatBuffer[] planes = {memAllocFloat(n), memAllocFloat(n), memAllocFloat(n)};
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            for (int p = 0; p < n; p++) {
+                planes[0].put(p, pixels[p * 3 + 2]);
+                planes[1].put(p, pixels[p * 3 + 1]);
+                planes[2].put(p, pixels[p * 3]);
+            }
+
+            EXRHeader header = EXRHeader.calloc(stack);
+            InitEXRHeader(header);
+            EXRImage image = EXRImage.calloc(stack);
+            InitEXRImage(image);
+
+            PointerBuffer images = stack.mallocPointer(3);
+            for (FloatBuffer plane : planes) {
+                images.put(memAddress(plane));
+            }
+            images.flip();
+            image.images(images).width(width).height(height).num_channels(3);
+
+            EXRChannelInfo.Buffer channels = EXRChannelInfo.calloc(3, stack);
+            String[] names = {"B", "G", "R"};
+            for (int c = 0; c < 3; c++) {
+                memASCII(names[c], true, channels.get(c).name());
+            }
+            IntBuffer pixelTypes = stack.ints(TINYEXR_PIXELTYPE_FLOAT, TINYEXR_PIXELTYPE_FLOAT, TINYEXR_PIXELTYPE_FLOAT);
+            IntBuffer requested = stack.ints(TINYEXR_PIXELTYPE_HALF, TINYEXR_PIXELTYPE_HALF, TINYEXR_PIXELTYPE_HALF);
+            header.num_channels(3)
+                .channels(channels)
+                .pixel_types(pixelTypes)
+                .requested_pixel_types(requested)
+                .compression_type(TINYEXR_COMPRESSIONTYPE_ZIP);
+
+            PointerBuffer err = stack.mallocPointer(1);
+            if (SaveEXRImageToFile(image, header, path, err) != TINYEXR_SUCCESS) {
+                String message = memUTF8Safe(err.get(0));
+                nFreeEXRErrorMessage(err.get(0));
+                throw new IOException("Could not write " + path + ": " + message);
+            }
+        } finally {
+            for (FloatBuffer plane : planes) {
+                memFree(plane);
+            }
+        }
+    }
+
+    // Single-part scanline EXR, one line per block, half float B, G, R channels
+    void writeUncompressedExr(String path) throws IOException {
+        String[] names = {"B", "G", "R"};
+        int[] sources = {2, 1, 0};
+        ByteBuffer header = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(20000630).putInt(2);  // magic number, version 2 with single-part scanline flags
+
+        putAttribute(header, "channels", "chlist", names.length * 18 + 1);
+        for (String name : names) {
+            putName(header, name);
+            header.putInt(1).putInt(0).putInt(1).putInt(1);  // HALF, pLinear and reserved, x and y sampling
+        }
+        header.put((byte) 0);
+        putAttribute(header, "compression", "compression", 1);
+        header.put((byte) 0);  // NO_COMPRESSION
+        putAttribute(header, "dataWindow", "box2i", 16);
+        header.putInt(0).putInt(0).putInt(width - 1).putInt(height - 1);
+        putAttribute(header, "displayWindow", "box2i", 16);
+        header.putInt(0).putInt(0).putInt(width - 1).putInt(height - 1);
+        putAttribute(header, "lineOrder", "lineOrder", 1);
+        header.put((byte) 0);  // INCREASING_Y
+        putAttribute(header, "pixelAspectRatio", "float", 4);
+        header.putFloat(1.0f);
+        putAttribute(header, "screenWindowCenter", "v2f", 8);
+        header.putFloat(0.0f).putFloat(0.0f);
+        putAttribute(header, "screenWindowWidth", "float", 4);
+        header.putFloat(1.0f);
+        header.put((byte) 0);
+        header.flip();
+
+        int lineBytes = width * names.length * Short.BYTES;
+        long firstLine = header.remaining() + (long) height * Long.BYTES;
+        ByteBuffer out = ByteBuffer.allocate((int) (firstLine + (long) height * (8 + lineBytes))).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(header);
+        for (int y = 0; y < height; y++) {
+            out.putLong(firstLine + (long) y * (8 + lineBytes));
+        }
+        for (int y = 0; y < height; y++) {
+            out.putInt(y).putInt(lineBytes);
+            for (int source : sources) {
+                for (int x = 0; x < width; x++) {
+                    out.putShort(toHalf(pixels[(y * width + x) * 3 + source]));
+                }
+            }
+        }
+        Files.write(Paths.get(path), out.array());
+    }
+
+    private static void putAttribute(ByteBuffer header, String name, String type, int size) {
+        putName(header, name);
+        putName(header, type);
+        header.putInt(size);
+    }
+
+    private static void putName(ByteBuffer header, String name) {
+        header.put(name.getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+    }
+
+    // IEEE 754 binary16, rounding to nearest even
+    static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent == 0xFF - 127 + 15) {
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        if (exponent >= 31) {
+            return (short) (sign | 0x7C00);
+        }
+        int shift = 13;
+        int half;
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            shift = 14 - exponent;
+            half = mantissa >> shift;
+        } else {
+            half = exponent << 10 | mantissa >> 13;
+        }
+        int rest = mantissa & ((1 << shift) - 1);
+        int midpoint = 1 << (shift - 1);
+        if (rest > midpoint || (rest == midpoint && (half & 1) != 0)) {
+            half++;  // may carry into the exponent, up to infinity
+        }
+        return (short) (sign | half);
+    }
+
+    public void printReport() {
+        long rays = (long) width * height * samples * samples;
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("image          %d x %d, %d spp, %d threads, %d px tiles%n",
+            width, height, samples * samples, threads, TILE_SIZE);
+        System.out.printf("elapsed        %.3f s%n", seconds);
+        System.out.printf("rays           %,d (%,.0f rays/s)%n", rays, rays / seconds);
+        System.out.printf("steps          %,d (%.1f per ray, %,.0f steps/s)%n",
+            integrationSteps.sum(), (double) integrationSteps.sum() / rays, integrationSteps.sum() / seconds);
+    }
+
+    private static int positive(String option, String value) {
+        int n = Integer.parseInt(value);
+        if (n <= 0) {
+            throw new IllegalArgumentException(option + " must be positive: " + value);
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SchwarzschildRenderer renderer = new SchwarzschildRenderer();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--width" -> renderer.width = positive(args[i], args[++i]);
+                case "--height" -> renderer.height = positive(args[i], args[++i]);
+                case "--samples" -> renderer.samples = positive(args[i], args[++i]);
+                case "--threads" -> renderer.threads = positive(args[i], args[++i]);
+                case "--fov" -> renderer.fov = Float.parseFloat(args[++i]);
+                case "--distance" -> renderer.cameraDistance = Float.parseFloat(args[++i]);
+                case "--elevation" -> renderer.elevation = Float.parseFloat(args[++i]);
+                case "--exposure" -> renderer.exposure = Float.parseFloat(args[++i]);
+                case "--output" -> renderer.output = args[++i];
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        renderer.render();
+        renderer.printReport();
+        renderer.write(renderer.output);
+        System.out.println("wrote          " + renderer.output);
+    }
+}
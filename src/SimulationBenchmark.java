@@ -0,0 +1,390 @@
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.lwjgl.system.MemoryUtil.memByteBuffer;
+
+// Micro-benchmarks for the simulation hot paths. Each benchmark reports throughput,
+// average time per operation and bytes allocated per operation (measured on the
+// benchmark thread, like JMH's gc profiler).
+//
+//   java SimulationBenchmark                               run everything
+//   java SimulationBenchmark --save-baseline bench.properties
+//   java SimulationBenchmark --baseline bench.properties   exit 1 on regression
+//   java SimulationBenchmark --check-warp 1e-4             exit 1 if a fast warp mode
+//                                                          strays further from EXACT
+//   java SimulationBenchmark --check-vector                exit 1 if the vector kernel's
+//                                                          state differs from the scalar loop
+//   java SimulationBenchmark --check-alloc                 exit 1 if a steady frame (parallel
+//                                                          update, snapshot, cull, pack)
+//                                                          allocates on any of its threads
+//
+// A benchmark regresses when its time per operation exceeds the baseline by more than
+// --tolerance (default 0.25) or it allocates where the baseline did not. The lensed pack
+// also regresses when it costs more than LENSED_PACK_BUDGET times the baseline's unlensed
+// pack, so --filter particle.pack[lensed] --baseline holds lensing to its budget.
+public class SimulationBenchmark {
+
+    interface Op {
+        // Runs one invocation and returns the number of operations it performed
+        int run();
+    }
+
+    static class Result {
+        final String name;
+        final double nanosPerOp;
+        final double opsPerSecond;
+        final double bytesPerOp;
+
+        Result(String name, double nanosPerOp, double bytesPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.opsPerSecond = 1e9 / nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    // Lensing is meant to cost about what the TrailWarp bend it replaces does
+    static final double LENSED_PACK_BUDGET = 2.5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static volatile float sink;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Op> ops = new ArrayList<>();
+    long warmupNanos = 1_000_000_000L;
+    long measureNanos = 2_000_000_000L;
+
+    void add(String name, Op op) {
+        names.add(name);
+        ops.add(op);
+    }
+
+    List<Result> runAll(String filter) {
+        List<Result> results = new ArrayList<>();
+        for (int b = 0; b < ops.size(); b++) {
+            if (filter != null && !names.get(b).contains(filter)) continue;
+            Result result = measure(names.get(b), ops.get(b));
+            System.out.printf("%-44s %12.1f ns/op %14.0f ops/s %10.1f B/op%n",
+                result.name, result.nanosPerOp, result.opsPerSecond, result.bytesPerOp);
+            results.add(result);
+        }
+        return results;
+    }
+
+    Result measure(String name, Op op) {
+        long end = System.nanoTime() + warmupNanos;
+        while (System.nanoTime() < end) {
+            op.run();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long operations = 0;
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        end = start + measureNanos;
+        long now;
+        do {
+            operations += op.run();
+            now = System.nanoTime();
+        } while (now < end);
+        long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        return new Result(name, (double) (now - start) / operations, (double) bytes / operations);
+    }
+
+    static SimulationBenchmark standardSuite() throws IOException {
+        SimulationBenchmark bench = new SimulationBenchmark();
+
+        int n = 20000;
+        ParticleStore store = new ParticleStore(n, 0.4f, 0.6f);
+        ParticleRandom random = new ParticleRandom(42L);
+        store.seed(0, n, random);
+
+        for (TrailWarp.Mode mode : TrailWarp.Mode.values()) {
+            bench.add("particle.update[" + mode + "]", () -> {
+                store.warpMode = mode;
+                store.update(0, n, 0.016f, random);
+                sink = ParticleStore.getFloat(store.distance, 0);
+                return n;
+            });
+            bench.add("particle.addCurrentPositionToTrail[" + mode + "]", () -> {
+                store.warpMode = mode;
+                for (int i = 0; i < n; i++) {
+                    store.addCurrentPositionToTrail(i);
+                }
+                sink = ParticleStore.getFloat(store.trailX, 0);
+                return n;
+            });
+        }
+        ParticleKernel kernel = ParticleKernel.create(store);
+        if (kernel != null) {
+            bench.add("particle.update[FAST,vector]", () -> {
+                store.warpMode = TrailWarp.Mode.FAST;
+                kernel.update(0, n, 0.016f, random);
+                sink = ParticleStore.getFloat(store.distance, 0);
+                return n;
+            });
+        }
+
+        // Trail and point packing for the default camera, with and without lensing
+        ParticleSnapshot snapshot = new ParticleSnapshot(n, 0.4f, 0.6f);
+        for (int frame = 0; frame < ParticleStore.TRAIL_LENGTH; frame++) {
+            store.update(0, n, 0.016f, random);
+        }
+        snapshot.copyFrom(store, n, 0, 0);
+        ParticleBatch batch = new ParticleBatch(n);
+        CameraMatrices camera = new CameraMatrices();
+        camera.setViewport(1200, 900);
+        camera.setOrbit(2.0f, 0.4f, 0.0f, 20.0f);
+        camera.update();
+        ParticleVisibility visibility = new ParticleVisibility();
+        visibility.begin(camera);
+        // Built in memory, so benchmarking leaves no cache file behind
+        LensingTable lensing = LensingTable.build(0.4f, Runtime.getRuntime().availableProcessors());
+        lensing.begin(camera);
+        bench.add("particle.pack", () -> {
+            batch.pack(snapshot, 0.5f, visibility, ParticleStore.TRAIL_LENGTH, null);
+            sink = batch.pointCount;
+            return n;
+        });
+        bench.add("particle.pack[lensed]", () -> {
+            batch.pack(snapshot, 0.5f, visibility, ParticleStore.TRAIL_LENGTH, lensing);
+            sink = batch.pointCount;
+            return n;
+        });
+
+        String objPath = "Textures/sphere.obj";
+        bench.add("obj.parse", () -> {
+            try {
+                sink = OBJModel.parse(objPath).faceCount;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return 1;
+        });
+
+        bench.add("geometry.ring(256)", () -> {
+            sink = Geometry.ring(0.58f, 256)[0];
+            return 1;
+        });
+        bench.add("geometry.wireSphere(32x32)", () -> {
+            sink = Geometry.wireSphere(0.6f, 32, 32)[0];
+            return 1;
+        });
+        bench.add("geometry.solidSphere(64x64)", () -> {
+            sink = Geometry.solidSphere(0.4f, 64, 64)[0];
+            return 1;
+        });
+        return bench;
+    }
+
+    // Steps two identically seeded stores, one through the scalar loop and one through the
+    // vector kernel, and compares their whole memory blocks after every frame. An odd
+    // particle count leaves a tail for the kernel's scalar remainder. Returns the first
+    // frame whose state differs, or -1.
+    static int vectorMismatch(int particles, int frames, float deltaTime) {
+        try (ParticleStore reference = new ParticleStore(particles, 0.4f, 0.6f);
+             ParticleStore test = new ParticleStore(particles, 0.4f, 0.6f)) {
+            ParticleKernel kernel = ParticleKernel.create(test);
+            ParticleRandom referenceRandom = new ParticleRandom(7L);
+            ParticleRandom testRandom = new ParticleRandom(7L);
+            reference.seed(0, particles, referenceRandom);
+            test.seed(0, particles, testRandom);
+
+            ByteBuffer a = memByteBuffer(reference.distance, (int) reference.bytes);
+            ByteBuffer b = memByteBuffer(test.distance, (int) test.bytes);
+            for (int frame = 0; frame < frames; frame++) {
+                reference.update(0, particles, deltaTime, referenceRandom);
+                kernel.update(0, particles, deltaTime, testRandom);
+                if (a.mismatch(b) >= 0) {
+                    return frame;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Runs the frame the window runs, minus GL: a parallel engine step and snapshot publish
+    // through SimulationThread.advance, then camera, culling, lensing and packing on this
+    // thread. After two warm-up passes, returns the bytes allocated over `frames` frames by
+    // this thread and the engine's pool workers together. Spiral dynamics only: a --gravity
+    // step rebuilds its Barnes-Hut tree with fresh fork-join tasks and sort buffers.
+    static long frameAllocations(int particles, int frames) throws IOException {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        try (ParticleStore store = new ParticleStore(particles, 0.4f, 0.6f)) {
+            ParticleUpdateEngine engine = new ParticleUpdateEngine(store, 42L, threads);
+            engine.seed();
+            FrameProfiler profiler = new FrameProfiler(null, false, 10);
+            profiler.start();
+            SimulationThread simulation = new SimulationThread(store, engine, 60, particles, profiler);
+            ParticleBatch batch = new ParticleBatch(particles);
+            CameraMatrices camera = new CameraMatrices();
+            camera.setViewport(1200, 900);
+            ParticleVisibility visibility = new ParticleVisibility();
+            LensingTable lensing = LensingTable.build(0.4f, threads);
+            try {
+                long total = 0;
+                for (int pass = 0; pass < 3; pass++) {  // the first passes warm up the JIT
+                    long[] workers = poolWorkerIds();
+                    long[] workersBefore = THREADS.getThreadAllocatedBytes(workers);
+                    long before = THREADS.getCurrentThreadAllocatedBytes();
+                    for (int frame = 0; frame < frames; frame++) {
+                        simulation.advance();
+                        ParticleSnapshot snapshot = simulation.latest();
+                        camera.setOrbit(2.0f + (frame & 63) * 0.01f, 0.4f, frame * 0.5f, 20.0f);
+                        camera.update();
+                        visibility.begin(camera);
+                        lensing.begin(camera);
+                        batch.pack(snapshot, 0.5f, visibility, ParticleStore.TRAIL_LENGTH, (frame & 1) == 0 ? lensing : null);
+                        profiler.endFrame();
+                    }
+                    total = THREADS.getCurrentThreadAllocatedBytes() - before;
+                    long[] workersAfter = THREADS.getThreadAllocatedBytes(workers);
+                    for (int w = 0; w < workers.length; w++) {
+                        if (workersBefore[w] >= 0 && workersAfter[w] >= 0) {
+                            total += workersAfter[w] - workersBefore[w];
+                        }
+                    }
+                }
+                return total;
+            } finally {
+                simulation.close();
+                engine.shutdown();
+            }
+        }
+    }
+
+    private static long[] poolWorkerIds() {
+        return Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.getName().startsWith("ForkJoinPool-"))
+            .mapToLong(Thread::getId)
+            .toArray();
+    }
+
+    static void saveBaseline(List<Result> results, String path) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
+            for (Result r : results) {
+                writer.write(r.name + ".nsPerOp=" + r.nanosPerOp + "\n");
+                writer.write(r.name + ".bytesPerOp=" + r.bytesPerOp + "\n");
+            }
+        }
+    }
+
+    static int compareBaseline(List<Result> results, String path, double tolerance) throws IOException {
+        Properties baseline = new Properties();
+        try (FileReader reader = new FileReader(path)) {
+            baseline.load(reader);
+        }
+
+        int regressions = 0;
+        String unlensed = baseline.getProperty("particle.pack.nsPerOp");
+        for (Result r : results) {
+            if (r.name.equals("particle.pack[lensed]") && unlensed != null
+                    && r.nanosPerOp > Double.parseDouble(unlensed) * LENSED_PACK_BUDGET) {
+                System.out.printf("REGRESSION %s: %.1f ns/op, over %.1f times the baseline particle.pack (%s ns/op)%n",
+                    r.name, r.nanosPerOp, LENSED_PACK_BUDGET, unlensed);
+                regressions++;
+            }
+
+            String nanos = baseline.getProperty(r.name + ".nsPerOp");
+            String bytes = baseline.getProperty(r.name + ".bytesPerOp");
+            if (nanos == null) continue;
+
+            double limit = Double.parseDouble(nanos) * (1 + tolerance);
+            if (r.nanosPerOp > limit) {
+                System.out.printf("REGRESSION %s: %.1f ns/op, baseline limit %.1f ns/op%n", r.name, r.nanosPerOp, limit);
+                regressions++;
+            }
+            // Allow a little slack for measurement noise but catch new per-op allocations
+            if (bytes != null && r.bytesPerOp > Double.parseDouble(bytes) * (1 + tolerance) + 1.0) {
+                System.out.printf("REGRESSION %s: %.1f B/op, baseline %s B/op%n", r.name, r.bytesPerOp, bytes);
+                regressions++;
+            }
+        }
+        return regressions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String filter = null;
+        String baselinePath = null;
+        String savePath = null;
+        double tolerance = 0.25;
+        float warpLimit = -1;
+        boolean checkVector = false;
+        boolean checkAlloc = false;
+        SimulationBenchmark bench = standardSuite();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter" -> filter = args[++i];
+                case "--baseline" -> baselinePath = args[++i];
+                case "--save-baseline" -> savePath = args[++i];
+                case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+                case "--check-warp" -> warpLimit = Float.parseFloat(args[++i]);
+                case "--check-vector" -> checkVector = true;
+                case "--check-alloc" -> checkAlloc = true;
+                case "--warmup-ms" -> bench.warmupNanos = Long.parseLong(args[++i]) * 1_000_000L;
+                case "--measure-ms" -> bench.measureNanos = Long.parseLong(args[++i]) * 1_000_000L;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        if (warpLimit >= 0) {
+            boolean failed = false;
+            for (TrailWarp.Mode mode : TrailWarp.Mode.values()) {
+                float error = TrailWarp.maxError(mode, 20000, 2000, 0.016f);
+                System.out.printf("warp %-6s max error vs EXACT %.3g%n", mode, error);
+                failed |= error > warpLimit;
+            }
+            if (failed) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (checkVector) {
+            System.out.println("kernel " + ParticleKernel.status());
+            if (!ParticleKernel.available()) {
+                System.exit(1);
+            }
+            int frame = vectorMismatch(20003, 2000, 0.016f);
+            if (frame >= 0) {
+                System.out.println("vector kernel differs from the scalar loop at frame " + frame);
+                System.exit(1);
+            }
+            System.out.println("vector kernel matches the scalar loop bit for bit");
+            return;
+        }
+
+        if (checkAlloc) {
+            // Anything allocated every frame costs at least 16 bytes a frame. The fork-join
+            // pool still allocates a waiter node now and then when this thread parks on a
+            // join, which averages out far below a byte a frame.
+            int frames = 2000;
+            long bytes = frameAllocations(20000, frames);
+            double perFrame = (double) bytes / frames;
+            System.out.printf("%,d bytes allocated over %,d frames, %.3f per frame%n", bytes, frames, perFrame);
+            if (perFrame >= 1.0) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        List<Result> results = bench.runAll(filter);
+        if (savePath != null) {
+            saveBaseline(results, savePath);
+        }
+        if (baselinePath != null && compareBaseline(results, baselinePath, tolerance) > 0) {
+            System.exit(1);
+        }
+    }
+}
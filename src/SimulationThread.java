@@ -0,0 +1,257 @@
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Steps the particle system on its own thread at a fixed rate, independent of the
+// render loop and vsync. After every batch of steps the state is copied into a
+// ParticleSnapshot and published through a lock-free TripleBuffer; the render thread
+// picks up the newest one and interpolates between its last two positions. Snapshots
+// may hold fewer particles than the store, which caps what the renderer draws without
+// limiting the simulation.
+//
+// Checkpoint and restore requests from the render thread are served between steps. A
+// checkpoint is a block copy of the store made there, which stalls stepping for the
+// length of one memcpy of the store (see Checkpoint); the file is written by a
+// background thread while stepping continues. Requests still pending at stop() are
+// dropped there, so a restore never touches the store from any other thread.
+public class SimulationThread implements Runnable {
+
+    // Steps run back to back after a stall before the backlog is dropped
+    private static final int MAX_CATCH_UP_STEPS = 5;
+
+    private final ParticleStore store;
+    private final ParticleUpdateEngine engine;
+    private final ParticleSnapshot[] snapshotSlots;
+    private final TripleBuffer<ParticleSnapshot> snapshots;
+    private final FrameProfiler profiler;
+
+    final float stepSeconds;
+    final long stepNanos;
+
+    private volatile boolean running;
+    private volatile boolean paused;
+    private volatile Throwable failure;
+    private Thread thread;
+    private long step;
+
+    private final AtomicReference<CheckpointRequest> checkpointRequest = new AtomicReference<>();
+    private final AtomicReference<Checkpoint> restoreRequest = new AtomicReference<>();
+    private final ExecutorService checkpointWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread writer = new Thread(runnable, "checkpoint-writer");
+        writer.setDaemon(true);
+        return writer;
+    });
+
+    private record CheckpointRequest(Path path, float[] camera, CompletableFuture<Path> done) {}
+
+    public SimulationThread(ParticleStore store, ParticleUpdateEngine engine, int stepsPerSecond,
+                            int snapshotCapacity, FrameProfiler profiler) {
+        this.store = store;
+        this.engine = engine;
+        this.profiler = profiler;
+        this.stepSeconds = 1.0f / stepsPerSecond;
+        this.stepNanos = 1_000_000_000L / stepsPerSecond;
+        int capacity = Math.min(snapshotCapacity, store.capacity);
+        this.snapshotSlots = new ParticleSnapshot[3];
+        for (int i = 0; i < snapshotSlots.length; i++) {
+            snapshotSlots[i] = new ParticleSnapshot(capacity, store.blackHoleRadius, store.eventHorizonRadius);
+        }
+        this.snapshots = new TripleBuffer<>(snapshotSlots[0], snapshotSlots[1], snapshotSlots[2]);
+    }
+
+    public void start() {
+        // The reader must never see an empty snapshot, so publish the seeded state first
+        publish(System.nanoTime());
+        running = true;
+        thread = new Thread(this, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+        profiler.registerSimulationThread(thread);
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dropRequests();
+    }
+
+    // Requests that arrived after the last step boundary; the thread will not serve them
+    private void dropRequests() {
+        Checkpoint restore = restoreRequest.getAndSet(null);
+        if (restore != null) {
+            restore.close();
+        }
+        CheckpointRequest request = checkpointRequest.getAndSet(null);
+        if (request != null) {
+            request.done.completeExceptionally(new IllegalStateException("Simulation stopped"));
+        }
+    }
+
+    // Writes a checkpoint of the state after the current step; completes once the file is written
+    public CompletableFuture<Path> requestCheckpoint(Path path, float[] camera) {
+        CheckpointRequest request = new CheckpointRequest(path, camera, new CompletableFuture<>());
+        if (running) {
+            CheckpointRequest replaced = checkpointRequest.getAndSet(request);
+            if (replaced != null) {
+                replaced.done.completeExceptionally(new IllegalStateException("Superseded by a newer checkpoint request"));
+            }
+        } else {
+            serveCheckpoint(request);
+        }
+        return request.done;
+    }
+
+    // Continues from a checkpoint at the next step boundary (immediately when not running).
+    // Takes ownership of the checkpoint. Only from the thread that calls start() and stop(),
+    // so the store cannot be freed under an immediate restore.
+    public void restore(Checkpoint checkpoint) {
+        checkpoint.checkCompatible(store, engine);
+        if (running) {
+            Checkpoint replaced = restoreRequest.getAndSet(checkpoint);
+            if (replaced != null) {
+                replaced.close();
+            }
+        } else {
+            serveRestore(checkpoint);
+        }
+    }
+
+    private void serveRequests() {
+        Checkpoint restore = restoreRequest.getAndSet(null);
+        if (restore != null) {
+            serveRestore(restore);
+        }
+        CheckpointRequest request = checkpointRequest.getAndSet(null);
+        if (request != null) {
+            serveCheckpoint(request);
+        }
+    }
+
+    private void serveRestore(Checkpoint checkpoint) {
+        try {
+            checkpoint.restoreInto(store, engine);
+            step = checkpoint.step;
+        } finally {
+            checkpoint.close();
+        }
+        publish(System.nanoTime());
+    }
+
+    private void serveCheckpoint(CheckpointRequest request) {
+        Checkpoint checkpoint;
+        try {
+            checkpoint = Checkpoint.capture(store, engine, step, request.camera);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            request.done.completeExceptionally(e);
+            return;
+        }
+        checkpointWriter.execute(() -> {
+            try (checkpoint) {
+                checkpoint.write(request.path);
+                request.done.complete(request.path);
+            } catch (Throwable t) {
+                request.done.completeExceptionally(t);
+            }
+        });
+    }
+
+    // Frees the snapshots; only after stop() and once the renderer is done with them
+    public void close() {
+        dropRequests();
+        checkpointWriter.shutdown();
+        try {
+            checkpointWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ParticleSnapshot snapshot : snapshotSlots) {
+            snapshot.close();
+        }
+    }
+
+    // Steps once on the calling thread and publishes the result. For deterministic
+    // offline runs, such as recording, where start() is never called.
+    public void advance() {
+        long t = profiler.begin(FrameProfiler.Phase.SIMULATION_STEP);
+        engine.update(stepSeconds);
+        profiler.end(FrameProfiler.Phase.SIMULATION_STEP, t);
+        step++;
+        publish(step * stepNanos);
+    }
+
+    @Override
+    public void run() {
+        try {
+            long next = System.nanoTime() + stepNanos;
+            while (running) {
+                long now = System.nanoTime();
+                if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+
+                serveRequests();
+                boolean stepped = false;
+                for (int i = 0; i < MAX_CATCH_UP_STEPS && now >= next; i++) {
+                    if (!paused) {
+                        long t = profiler.begin(FrameProfiler.Phase.SIMULATION_STEP);
+                        engine.update(stepSeconds);
+                        profiler.end(FrameProfiler.Phase.SIMULATION_STEP, t);
+                        step++;
+                        stepped = true;
+                    }
+                    next += stepNanos;
+                }
+                if (now >= next) {
+                    next = now + stepNanos;
+                }
+                if (stepped) {
+                    publish(next - stepNanos);
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+            running = false;
+        }
+    }
+
+    private void publish(long timeNanos) {
+        long t = profiler.begin(FrameProfiler.Phase.SNAPSHOT_PUBLISH);
+        snapshots.back().copyFrom(store, engine.activeCount(), step, timeNanos);
+        snapshots.publish();
+        profiler.end(FrameProfiler.Phase.SNAPSHOT_PUBLISH, t);
+    }
+
+    // Render thread: newest published snapshot
+    public ParticleSnapshot latest() {
+        if (failure != null) {
+            throw new IllegalStateException("Simulation thread failed", failure);
+        }
+        return snapshots.acquire();
+    }
+
+    // How far the render time is past the snapshot's step, as a 0..1 blend from the
+    // previous position (trail entry 1) to the current one (trail entry 0)
+    public float interpolation(ParticleSnapshot snapshot, long nowNanos) {
+        float alpha = (float) (nowNanos - snapshot.timeNanos) / stepNanos;
+        return Math.max(0.0f, Math.min(alpha, 1.0f));
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+}
@@ -1,54 +1,306 @@
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
 
+// Writes a UV sphere as an OBJ file: (stacks + 1) rows of (slices + 1) vertices, then two
+// triangles per quad.
+//
+// The file is produced as a sequence of CHUNK_LINES-line chunks. Chunks are formatted on
+// a pool, at most a few per thread ahead of the writer, and written through a FileChannel
+// strictly in order, so the output is the same for any thread count and memory use does
+// not depend on the mesh size. Numbers are formatted by hand; the text matches what
+// String.format("%.6f") and "%d" produced before.
+//
+// With --binary the compiled mesh (see MeshCache) is written next to the OBJ from the
+// same chunks, with analytic unit normals, so loading it needs neither parsing nor a
+// compile step.
+//
+//   java SphereObjGenerator [--stacks 32] [--slices 32] [--radius 2.0]
+//                           [--output Textures/sphere.obj] [--binary] [--threads N]
 public class SphereObjGenerator {
 
-    public static void main(String[] args) {
-        /*
+    static final int CHUNK_LINES = 16384;
+    static final float MAX_RADIUS = 1.0e6f;
 
-         Decrease the stacks & slices if rendering is taking too long
-         
-         ****I suggest 16 for both****
+    final int stacks;
+    final int slices;
+    final float radius;
+    final int vertexCount;
+    final long faceCount;
 
-         */
-        int stacks = 32; 
-        int slices = 32; 
-        float radius = 2.0f;
+    private final int maxLineBytes;
+
+    SphereObjGenerator(int stacks, int slices, float radius) {
+        if (stacks < 2 || slices < 3) {
+            throw new IllegalArgumentException("Need at least 2 stacks and 3 slices");
+        }
+        if (!(radius > 0.0f && radius <= MAX_RADIUS)) {
+            throw new IllegalArgumentException("Radius must be in (0, " + MAX_RADIUS + "]");
+        }
+        long vertices = (long) (stacks + 1) * (slices + 1);
+        if (vertices > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(vertices + " vertices do not fit 32-bit OBJ indices");
+        }
+        this.stacks = stacks;
+        this.slices = slices;
+        this.radius = radius;
+        this.vertexCount = (int) vertices;
+        this.faceCount = 2L * stacks * slices;
+
+        // "v" plus three "-<int>.dddddd" fields, or "f" plus three indices, and the newline
+        int intDigits = digits((long) Math.ceil(radius) + 1);
+        int vertexLine = 1 + 3 * (2 + intDigits + 7) + 1;
+        int faceLine = 1 + 3 * (1 + digits(vertexCount)) + 1;
+        this.maxLineBytes = Math.max(vertexLine, faceLine);
+    }
+
+    long lineCount() {
+        return vertexCount + faceCount;
+    }
 
-        StringBuilder obj = new StringBuilder();
+    long indexCount() {
+        return faceCount * 3;
+    }
+
+    // Streams the OBJ to output and, if binary is set, the compiled mesh to its cache path
+    void write(Path output, boolean binary, ForkJoinPool pool) throws IOException {
+        if (binary && indexCount() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(indexCount() + " indices do not fit a compiled mesh");
+        }
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path cache = MeshCache.cachePath(output);
+        Path cacheTemp = cache.resolveSibling(cache.getFileName() + ".tmp");
+
+        int window = 2 * pool.getParallelism() + 1;
+        ArrayDeque<Chunk> free = new ArrayDeque<>();
+        for (int i = 0; i < window; i++) {
+            free.add(new Chunk(CHUNK_LINES * maxLineBytes, binary ? CHUNK_LINES : 0));
+        }
+        ArrayDeque<CompletableFuture<Chunk>> inFlight = new ArrayDeque<>();
+        CRC32C crc = new CRC32C();
+
+        try (FileChannel obj = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel mesh = binary ? FileChannel.open(cacheTemp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) : null) {
+            long total = lineCount();
+            long next = 0;
+            while (next < total || !inFlight.isEmpty()) {
+                while (next < total && !free.isEmpty()) {
+                    // Chunks never straddle the vertex/face boundary
+                    long end = next < vertexCount ? vertexCount : total;
+                    int lines = (int) Math.min(CHUNK_LINES, end - next);
+                    Chunk chunk = free.poll();
+                    long first = next;
+                    inFlight.add(CompletableFuture.supplyAsync(() -> fill(chunk, first, lines, binary), pool));
+                    next += lines;
+                }
+
+                Chunk chunk = inFlight.poll().join();
+                ByteBuffer text = ByteBuffer.wrap(chunk.text, 0, chunk.length);
+                crc.update(text.duplicate());
+                writeFully(obj, text, -1);
+                if (binary) {
+                    writeBinary(mesh, chunk);
+                }
+                free.add(chunk);
+            }
+        }
+
+        if (binary) {
+            try (FileChannel mesh = FileChannel.open(cacheTemp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocateDirect(MeshCache.HEADER_BYTES).order(ByteOrder.nativeOrder());
+                MeshCache.putHeader(header, Files.size(output), Files.getLastModifiedTime(output).toMillis(),
+                    crc.getValue(), vertexCount, (int) indexCount());
+                writeFully(mesh, header.flip(), 0);
+            }
+            Files.move(cacheTemp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
 
-        
-        for (int i = 0; i <= stacks; i++) {
-            double phi = Math.PI * i / stacks;
-            for (int j = 0; j <= slices; j++) {
+    // Formats lines [first, first + lines); all vertex lines or all face lines
+    private Chunk fill(Chunk chunk, long first, int lines, boolean binary) {
+        chunk.first = first;
+        chunk.positions.clear();
+        chunk.normals.clear();
+        byte[] out = chunk.text;
+        int n = 0;
+        if (first < vertexCount) {
+            for (long l = first; l < first + lines; l++) {
+                int i = (int) (l / (slices + 1));
+                int j = (int) (l % (slices + 1));
+                double phi = Math.PI * i / stacks;
                 double theta = 2 * Math.PI * j / slices;
+                float x = (float) (radius * Math.sin(phi) * Math.cos(theta));
+                float y = (float) (radius * Math.cos(phi));
+                float z = (float) (radius * Math.sin(phi) * Math.sin(theta));
 
-                float x = (float)(radius * Math.sin(phi) * Math.cos(theta));
-                float y = (float)(radius * Math.cos(phi));
-                float z = (float)(radius * Math.sin(phi) * Math.sin(theta));
+                out[n++] = 'v';
+                out[n++] = ' ';
+                n = putFixed6(out, n, x);
+                out[n++] = ' ';
+                n = putFixed6(out, n, y);
+                out[n++] = ' ';
+                n = putFixed6(out, n, z);
+                out[n++] = '\n';
+                if (binary) {
+                    chunk.positions.putFloat(x).putFloat(y).putFloat(z);
+                    chunk.normals.putFloat((float) (Math.sin(phi) * Math.cos(theta)))
+                        .putFloat((float) Math.cos(phi))
+                        .putFloat((float) (Math.sin(phi) * Math.sin(theta)));
+                }
+            }
+        } else {
+            for (long l = first; l < first + lines; l++) {
+                long face = l - vertexCount;
+                int i = (int) (face / 2 / slices);
+                int j = (int) (face / 2 % slices);
+                int a = i * (slices + 1) + j + 1;
+                int b = a + slices + 1;
+                int v0 = a, v1 = b, v2 = a + 1;
+                if ((face & 1) != 0) {
+                    v0 = b;
+                    v1 = b + 1;
+                }
 
-                obj.append(String.format("v %.6f %.6f %.6f\n", x, y, z));
+                out[n++] = 'f';
+                out[n++] = ' ';
+                n = putLong(out, n, v0);
+                out[n++] = ' ';
+                n = putLong(out, n, v1);
+                out[n++] = ' ';
+                n = putLong(out, n, v2);
+                out[n++] = '\n';
+                if (binary) {
+                    chunk.positions.putInt(v0 - 1).putInt(v1 - 1).putInt(v2 - 1);
+                }
             }
         }
+        chunk.length = n;
+        return chunk;
+    }
+
+    // Compiled mesh layout: positions, then normals, then indices, each a contiguous block
+    private void writeBinary(FileChannel mesh, Chunk chunk) throws IOException {
+        long vertexBytes = (long) vertexCount * 3 * Float.BYTES;
+        if (chunk.first < vertexCount) {
+            long offset = MeshCache.HEADER_BYTES + chunk.first * 3 * Float.BYTES;
+            writeFully(mesh, chunk.positions.flip(), offset);
+            writeFully(mesh, chunk.normals.flip(), offset + vertexBytes);
+        } else {
+            long offset = MeshCache.HEADER_BYTES + 2 * vertexBytes + (chunk.first - vertexCount) * 3 * Integer.BYTES;
+            writeFully(mesh, chunk.positions.flip(), offset);
+        }
+    }
 
+    // Appends at the channel position when position < 0
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (position < 0) {
+                out.write(buffer);
+            } else {
+                position += out.write(buffer, position);
+            }
+        }
+    }
 
-        for (int i = 0; i < stacks; i++) {
-            for (int j = 0; j < slices; j++) {
-                int first = (i * (slices + 1)) + j + 1;
-                int second = first + slices + 1;
+    // Same text as String.format("%.6f", value): half-up rounding of the exact value, and a
+    // sign for anything negative including -0. Exact for |value| <= MAX_RADIUS, where
+    // value * 1e6 is far from the 2^53 limit and a rounding tie is always representable.
+    static int putFixed6(byte[] out, int n, float value) {
+        if (Float.floatToRawIntBits(value) < 0) {
+            out[n++] = '-';
+        }
+        long scaled = (long) Math.floor(Math.abs((double) value) * 1.0e6 + 0.5);
+        n = putLong(out, n, scaled / 1_000_000);
+        out[n++] = '.';
+        long fraction = scaled % 1_000_000;
+        for (int place = 100_000; place > 0; place /= 10) {
+            out[n++] = (byte) ('0' + fraction / place % 10);
+        }
+        return n;
+    }
 
-                obj.append(String.format("f %d %d %d\n", first, second, first + 1));
-                obj.append(String.format("f %d %d %d\n", second, second + 1, first + 1));
+    // Non-negative values only
+    static int putLong(byte[] out, int n, long value) {
+        int end = n + digits(value);
+        for (int k = end - 1; k >= n; k--) {
+            out[k] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    // One chunk's formatted text and, for --binary, its slice of the compiled mesh. Reused
+    // once written, so the number of chunks alive is bounded by the in-flight window.
+    private static final class Chunk {
+        final byte[] text;
+        final ByteBuffer positions; // positions, or indices for face chunks
+        final ByteBuffer normals;
+        long first;
+        int length;
+
+        Chunk(int textBytes, int binaryLines) {
+            text = new byte[textBytes];
+            positions = ByteBuffer.allocateDirect(binaryLines * 3 * Float.BYTES).order(ByteOrder.nativeOrder());
+            normals = ByteBuffer.allocateDirect(binaryLines * 3 * Float.BYTES).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int stacks = 32;
+        int slices = 32;
+        float radius = 2.0f;
+        Path output = Paths.get("Textures", "sphere.obj");
+        boolean binary = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--stacks" -> stacks = Integer.parseInt(args[++i]);
+                case "--slices" -> slices = Integer.parseInt(args[++i]);
+                case "--radius" -> radius = Float.parseFloat(args[++i]);
+                case "--output" -> output = Paths.get(args[++i]);
+                case "--binary" -> binary = true;
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
             }
         }
 
-        
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("Textures\\sphere.obj"))) {
-            writer.write(obj.toString());
-            System.out.println("sphere.obj generated successfully.");
-        } catch (IOException e) {
-            e.printStackTrace();
+        SphereObjGenerator generator = new SphereObjGenerator(stacks, slices, radius);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        long start = System.nanoTime();
+        try {
+            generator.write(output, binary, pool);
+        } finally {
+            pool.shutdown();
+        }
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%s generated: %,d vertices, %,d triangles, %.1f MB in %.1f ms%n", output,
+            generator.vertexCount, generator.faceCount, Files.size(output) / 1e6, ms);
+        if (binary) {
+            System.out.println("compiled mesh written to " + MeshCache.cachePath(output));
         }
     }
 }
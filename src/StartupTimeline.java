@@ -0,0 +1,47 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Wall-clock record of application startup. Steps are timed with begin/end from any
+// thread; firstFrame() prints them ordered by start time with the thread they ran on,
+// so overlapping background work is visible, followed by the time to first frame.
+final class StartupTimeline {
+
+    private record Step(String name, String thread, long start, long end) { }
+
+    private final long origin = System.nanoTime();
+    private final ConcurrentLinkedQueue<Step> steps = new ConcurrentLinkedQueue<>();
+    private boolean reported;
+
+    long begin() {
+        return System.nanoTime();
+    }
+
+    void end(String name, long start) {
+        steps.add(new Step(name, Thread.currentThread().getName(), start, System.nanoTime()));
+    }
+
+    // Prints the report the first time it is called; the GL thread calls it after every swap
+    void firstFrame() {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        long now = System.nanoTime();
+
+        List<Step> ordered = new ArrayList<>(steps);
+        ordered.sort(Comparator.comparingLong(Step::start));
+        StringBuilder sb = new StringBuilder("Startup timeline (ms from launch):\n");
+        for (Step step : ordered) {
+            sb.append(String.format("  %8.1f - %8.1f  %-34s %s%n",
+                millis(step.start), millis(step.end), step.name, step.thread));
+        }
+        sb.append(String.format("  time to first frame %.1f ms", millis(now)));
+        System.out.println(sb);
+    }
+
+    private double millis(long nanos) {
+        return (nanos - origin) / 1e6;
+    }
+}
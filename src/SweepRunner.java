@@ -0,0 +1,367 @@
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs a parameter sweep of independent headless simulations and streams one CSV row of
+// statistics per run to a results file as each run finishes.
+//
+//   java SweepRunner sweep.properties --output results.csv [--workers 8]
+//
+// The spec is a properties file. Each parameter takes one value or a comma-separated
+// list, and the sweep is every combination:
+//
+//   particles = 20000
+//   frames = 3600
+//   dt = 0.0166667
+//   seeds = 1, 2, 3
+//   eventHorizonRadius = 0.5, 0.6, 0.7
+//   blackHoleRadius = 0.4
+//   minSpeed = 0.3
+//   maxSpeed = 1.0, 1.5
+//   radialDecay = 0.00005, 0.0001
+//   heightDamping = 0.998
+//   lifeDecay = 0.0001
+//
+// Runs are single-threaded and execute on a fixed pool of --workers threads (default:
+// all cores). Each run is orchestrated by a task that hands the simulation to that pool,
+// waits for it and appends its row; these tasks are virtual threads when the JVM has
+// them (Java 21, or 19-20 with --enable-preview) and a small platform thread pool
+// otherwise, since they spend their time waiting.
+//
+// Every row starts with a key naming the run's parameters. Rerunning with the same
+// output resumes the sweep: runs whose key is already in the file are skipped, and a
+// row cut off by a crash is dropped. A failed run writes no row, so a resume retries it.
+public class SweepRunner {
+
+    static final int PROFILE_BINS = 16;
+    static final float SPAWN_WIDTH = 1.5f;  // ParticleStore.reset spawns within this of the horizon
+
+    static final String[] PARAMETERS = {"particles", "frames", "dt", "seeds", "eventHorizonRadius",
+        "blackHoleRadius", "minSpeed", "maxSpeed", "radialDecay", "heightDamping", "lifeDecay"};
+
+    record Run(int particles, int frames, float deltaTime, long seed, float eventHorizonRadius, float blackHoleRadius,
+               float minSpeed, float maxSpeed, float radialDecay, float heightDamping, float lifeDecay) {
+
+        String key() {
+            return String.format(Locale.ROOT, "n=%d;frames=%d;dt=%s;seed=%d;ehr=%s;bhr=%s;speed=%s-%s;radial=%s;damping=%s;life=%s",
+                particles, frames, deltaTime, seed, eventHorizonRadius, blackHoleRadius, minSpeed, maxSpeed,
+                radialDecay, heightDamping, lifeDecay);
+        }
+    }
+
+    // Infall and expiry rates are respawns per simulated second. Lifetimes are in
+    // simulated seconds from spawn to respawn. The density profile is the share of
+    // particles per unit disk area in PROFILE_BINS rings from the horizon to the outer
+    // spawn radius, averaged over samples from the second half of the run.
+    record Stats(double infallRate, double expiryRate, double meanLifetime, double meanDistance,
+                 double[] density, double seconds) { }
+
+    private final Path output;
+    private final int workers;
+    private final Object writeLock = new Object();
+    private BufferedWriter writer;
+
+    SweepRunner(Path output, int workers) {
+        this.output = output;
+        this.workers = workers;
+    }
+
+    static List<Run> expand(Properties spec) {
+        for (String name : spec.stringPropertyNames()) {
+            if (!List.of(PARAMETERS).contains(name)) {
+                throw new IllegalArgumentException("Unknown sweep parameter: " + name);
+            }
+        }
+        List<Run> runs = new ArrayList<>();
+        for (String particles : values(spec, "particles", "20000"))
+        for (String frames : values(spec, "frames", "3600"))
+        for (String dt : values(spec, "dt", Float.toString(1.0f / 60.0f)))
+        for (String seed : values(spec, "seeds", "42"))
+        for (String horizon : values(spec, "eventHorizonRadius", "0.6"))
+        for (String radius : values(spec, "blackHoleRadius", "0.4"))
+        for (String minSpeed : values(spec, "minSpeed", "0.3"))
+        for (String maxSpeed : values(spec, "maxSpeed", "1.0"))
+        for (String radial : values(spec, "radialDecay", "0.00005"))
+        for (String damping : values(spec, "heightDamping", "0.998"))
+        for (String life : values(spec, "lifeDecay", "0.0001")) {
+            Run run = new Run(Integer.parseInt(particles), Integer.parseInt(frames), Float.parseFloat(dt),
+                Long.parseLong(seed), Float.parseFloat(horizon), Float.parseFloat(radius), Float.parseFloat(minSpeed),
+                Float.parseFloat(maxSpeed), Float.parseFloat(radial), Float.parseFloat(damping), Float.parseFloat(life));
+            if (run.particles < 1 || run.frames < 1 || !(run.deltaTime > 0) || !(run.lifeDecay > 0)
+                    || run.maxSpeed < run.minSpeed) {
+                throw new IllegalArgumentException("Invalid run in sweep: " + run.key());
+            }
+            runs.add(run);
+        }
+        return runs;
+    }
+
+    private static String[] values(Properties spec, String name, String fallback) {
+        String[] values = spec.getProperty(name, fallback).split(",");
+        for (int i = 0; i < values.length; i++) {
+            values[i] = values[i].trim();
+        }
+        return values;
+    }
+
+    static Stats simulate(Run run) {
+        long start = System.nanoTime();
+        try (ParticleStore store = new ParticleStore(run.particles, run.blackHoleRadius, run.eventHorizonRadius)) {
+            store.radialDecay = run.radialDecay;
+            store.heightDamping = run.heightDamping;
+            store.lifeDecay = run.lifeDecay;
+            store.minSpeed = run.minSpeed;
+            store.speedRange = run.maxSpeed - run.minSpeed;
+            ParticleUpdateEngine engine = new ParticleUpdateEngine(store, run.seed, 1);
+            engine.setParallel(false);
+            try {
+                engine.seed();
+
+                // A respawned particle is the only one whose life is back at exactly 1. It
+                // expired if the life it had before the step ran out, computed as
+                // ParticleStore.update does, and fell in otherwise
+                int n = run.particles;
+                float[] life = new float[n];
+                int[] born = new int[n];
+                float aging = run.lifeDecay * run.deltaTime;
+                long infalls = 0, expiries = 0;
+                double lifetimeSum = 0;
+                double[] density = new double[PROFILE_BINS];
+                float inner = run.eventHorizonRadius;
+                float outer = run.eventHorizonRadius + SPAWN_WIDTH;
+                float binWidth = (outer - inner) / PROFILE_BINS;
+                double distanceSum = 0;
+                int samples = 0;
+                int sampleEvery = Math.max(1, run.frames / 200);
+
+                for (int frame = 1; frame <= run.frames; frame++) {
+                    for (int i = 0; i < n; i++) {
+                        life[i] = ParticleStore.getFloat(store.life, i);
+                    }
+                    engine.update(run.deltaTime);
+                    for (int i = 0; i < n; i++) {
+                        if (ParticleStore.getFloat(store.life, i) == 1.0f) {
+                            if (life[i] - aging <= 0) {
+                                expiries++;
+                            } else {
+                                infalls++;
+                            }
+                            lifetimeSum += (frame - born[i]) * (double) run.deltaTime;
+                            born[i] = frame;
+                        }
+                    }
+
+                    if (frame > run.frames / 2 && frame % sampleEvery == 0) {
+                        for (int i = 0; i < n; i++) {
+                            float d = ParticleStore.getFloat(store.distance, i);
+                            distanceSum += d;
+                            int bin = (int) ((d - inner) / binWidth);
+                            if (bin >= 0 && bin < PROFILE_BINS) {
+                                density[bin]++;
+                            }
+                        }
+                        samples++;
+                    }
+                }
+
+                double seconds = run.frames * (double) run.deltaTime;
+                long respawns = infalls + expiries;
+                for (int b = 0; b < PROFILE_BINS; b++) {
+                    double r0 = inner + b * binWidth, r1 = r0 + binWidth;
+                    density[b] /= Math.max(samples, 1) * (double) n * Math.PI * (r1 * r1 - r0 * r0);
+                }
+                return new Stats(infalls / seconds, expiries / seconds, respawns > 0 ? lifetimeSum / respawns : Double.NaN,
+                    distanceSum / Math.max(samples, 1) / n, density, (System.nanoTime() - start) / 1e9);
+            } finally {
+                engine.shutdown();
+            }
+        }
+    }
+
+    static String header() {
+        StringBuilder sb = new StringBuilder("key,infall_per_s,expiry_per_s,mean_lifetime_s,mean_distance,wall_s");
+        for (int b = 0; b < PROFILE_BINS; b++) {
+            sb.append(",density_").append(b);
+        }
+        return sb.toString();
+    }
+
+    static String row(Run run, Stats stats) {
+        StringBuilder sb = new StringBuilder(run.key());
+        sb.append(String.format(Locale.ROOT, ",%.6g,%.6g,%.6g,%.6g,%.3f",
+            stats.infallRate, stats.expiryRate, stats.meanLifetime, stats.meanDistance, stats.seconds));
+        for (double d : stats.density) {
+            sb.append(String.format(Locale.ROOT, ",%.6g", d));
+        }
+        return sb.toString();
+    }
+
+    // Keys of the runs already in the results file. Only rows ending in a newline count;
+    // anything after the last newline is a row cut off by a crash and is truncated away,
+    // as is everything from the first malformed row on.
+    Set<String> completedRuns() throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(output)) {
+            return done;
+        }
+        byte[] bytes = Files.readAllBytes(output);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (end == 0 && !header().startsWith(new String(bytes, StandardCharsets.UTF_8))) {
+            throw new IOException(output + " was written with different columns; use another --output");
+        }
+
+        long complete = 0;
+        int columns = header().split(",").length;
+        boolean first = true;
+        String[] lines = end > 0 ? new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n") : new String[0];
+        for (String line : lines) {
+            if (first) {
+                if (!line.equals(header())) {
+                    throw new IOException(output + " was written with different columns; use another --output");
+                }
+                first = false;
+            } else if (line.split(",").length == columns) {
+                done.add(line.substring(0, line.indexOf(',')));
+            } else {
+                break;
+            }
+            complete += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+            if (channel.size() > complete) {
+                channel.truncate(complete);
+            }
+        }
+        return done;
+    }
+
+    // Returns the number of failed runs
+    int run(List<Run> runs) throws IOException, InterruptedException {
+        Set<String> done = completedRuns();
+        List<Run> pending = new ArrayList<>();
+        for (Run run : runs) {
+            if (!done.contains(run.key())) {
+                pending.add(run);
+            }
+        }
+        ExecutorService orchestration = newOrchestrationExecutor(workers);
+        System.out.printf("%d runs, %d already in %s, %d to go on %d workers (orchestrated by %s)%n",
+            runs.size(), runs.size() - pending.size(), output, pending.size(), workers,
+            orchestration instanceof java.util.concurrent.ThreadPoolExecutor ? "platform threads" : "virtual threads");
+
+        boolean fresh = !Files.exists(output) || Files.size(output) == 0;
+        writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        ExecutorService compute = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "sweep-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        try {
+            if (fresh) {
+                writer.write(header());
+                writer.write('\n');
+                writer.flush();
+            }
+            for (Run run : pending) {
+                orchestration.execute(() -> {
+                    try {
+                        Future<Stats> result = compute.submit(() -> simulate(run));
+                        Stats stats = result.get();
+                        append(row(run, stats));
+                        System.out.printf("[%d/%d] %s  infall %.3g/s, lifetime %.3g s (%.1f s)%n", finished.incrementAndGet(),
+                            pending.size(), run.key(), stats.infallRate, stats.meanLifetime, stats.seconds);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        finished.incrementAndGet();
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        System.err.println("Run failed: " + run.key() + ": " + cause);
+                    }
+                });
+            }
+            orchestration.shutdown();
+            orchestration.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            orchestration.shutdownNow();
+            compute.shutdownNow();
+            writer.close();
+        }
+        return failed.get();
+    }
+
+    // One row per write, flushed, so a crash loses at most the row being written
+    private void append(String row) throws IOException {
+        synchronized (writeLock) {
+            writer.write(row);
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    private static ExecutorService newOrchestrationExecutor(int workers) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // Before Java 19
+        } catch (InvocationTargetException e) {
+            // Java 19-20 without --enable-preview
+        }
+        return Executors.newFixedThreadPool(workers * 2, runnable -> {
+            Thread thread = new Thread(runnable, "sweep-orchestrator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: java SweepRunner <sweep.properties> --output <results.csv> [--workers <n>]");
+            System.exit(2);
+        }
+        Path output = Paths.get("sweep-results.csv");
+        int workers = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--output" -> output = Paths.get(args[++i]);
+                case "--workers" -> workers = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        Properties spec = new Properties();
+        try (FileReader reader = new FileReader(args[0])) {
+            spec.load(reader);
+        }
+        List<Run> runs = expand(spec);
+        int failed = new SweepRunner(output, Math.max(1, workers)).run(runs);
+        if (failed > 0) {
+            System.err.println(failed + " runs failed; run again with the same --output to retry them");
+            System.exit(1);
+        }
+    }
+}
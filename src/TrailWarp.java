@@ -0,0 +1,92 @@
+// Vertical warp applied to trail positions to fake lensing near the hole:
+//
+//   y = sin(angle) * MAX_WARP * exp(-((r - blackHoleRadius) * 1.6)^2)
+//
+// The original code derived sin(angle) from atan2(z, x) and r from sqrt(x*x + z*z),
+// but those are just sin(angle) and distance. The radial factor only depends on r,
+// so it is tabulated once and linearly interpolated.
+public class TrailWarp {
+
+    enum Mode {
+        EXACT,  // the original formula, term for term
+        TABLE,  // exact cos/sin of the angle, tabulated radial factor
+        FAST    // incrementally rotated cos/sin, tabulated radial factor
+    }
+
+    static final float MAX_WARP = 0.45f;
+    static final float FALLOFF = 1.6f;
+    static final int TABLE_SIZE = 1024;
+
+    // Beyond this distance past the black hole radius the factor is below 1e-7 and treated as 0
+    static final float RANGE = 2.5f;
+
+    final float blackHoleRadius;
+    private final float[] table = new float[TABLE_SIZE + 1];
+    private final float maxRadius;
+    private final float invStep;
+
+    public TrailWarp(float blackHoleRadius) {
+        this.blackHoleRadius = blackHoleRadius;
+        maxRadius = blackHoleRadius + RANGE;
+        invStep = TABLE_SIZE / maxRadius;
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            table[i] = radialFactor(i / invStep);
+        }
+    }
+
+    float radialFactor(float r) {
+        return MAX_WARP * (float) Math.exp(-Math.pow((r - blackHoleRadius) * FALLOFF, 2));
+    }
+
+    float lookup(float r) {
+        if (r >= maxRadius || r < 0) {
+            return r < 0 ? radialFactor(r) : 0.0f;
+        }
+        float t = r * invStep;
+        int i = (int) t;
+        float frac = t - i;
+        return table[i] + (table[i + 1] - table[i]) * frac;
+    }
+
+    // The original trail position, kept as the reference for the faster modes
+    static float exactY(float distance, float angle, float blackHoleRadius) {
+        float x = (float) (distance * Math.cos(angle));
+        float z = (float) (distance * Math.sin(angle));
+        float r = (float) Math.sqrt(x * x + z * z);
+        float angleFromView = (float) Math.atan2(z, x);
+        float warpBend = (float) Math.sin(angleFromView);
+        return warpBend * MAX_WARP * (float) Math.exp(-Math.pow((r - blackHoleRadius) * FALLOFF, 2));
+    }
+
+    // Runs an EXACT and a test store in lockstep from the same seed and returns the largest
+    // absolute difference seen in any trail coordinate
+    static float maxError(Mode mode, int particles, int frames, float deltaTime) {
+        try (ParticleStore reference = new ParticleStore(particles, 0.4f, 0.6f);
+             ParticleStore test = new ParticleStore(particles, 0.4f, 0.6f)) {
+            reference.warpMode = Mode.EXACT;
+            test.warpMode = mode;
+            ParticleRandom referenceRandom = new ParticleRandom(7L);
+            ParticleRandom testRandom = new ParticleRandom(7L);
+            reference.seed(0, particles, referenceRandom);
+            test.seed(0, particles, testRandom);
+
+            float maxError = 0;
+            for (int frame = 0; frame < frames; frame++) {
+                reference.update(0, particles, deltaTime, referenceRandom);
+                test.update(0, particles, deltaTime, testRandom);
+                for (int i = 0; i < particles; i++) {
+                    long a = reference.trailSlot(i, 0);
+                    long b = test.trailSlot(i, 0);
+                    maxError = Math.max(maxError, difference(reference.trailX, test.trailX, a, b));
+                    maxError = Math.max(maxError, difference(reference.trailY, test.trailY, a, b));
+                    maxError = Math.max(maxError, difference(reference.trailZ, test.trailZ, a, b));
+                }
+            }
+            return maxError;
+        }
+    }
+
+    private static float difference(long columnA, long columnB, long a, long b) {
+        return Math.abs(ParticleStore.getFloat(columnA, a) - ParticleStore.getFloat(columnB, b));
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lock-free single-producer/single-consumer triple buffer. The writer always has a
+// private back buffer to fill, the reader always has a private front buffer to read,
+// and the third slot is handed over with one atomic exchange in either direction.
+// The reader sees the newest published value and never waits for the writer.
+public class TripleBuffer<T> {
+
+    // Low two bits: index of the shared middle slot; FRESH set when it holds an unread publish
+    private static final int FRESH = 4;
+
+    // Only ever holds the three Ts passed to the constructor
+    private final Object[] slots;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+
+    public TripleBuffer(T first, T second, T third) {
+        this.slots = new Object[] {first, second, third};
+    }
+
+    // Writer side: the buffer to fill next
+    public T back() {
+        return slot(back);
+    }
+
+    // Writer side: makes the back buffer visible to the reader and takes the old middle slot
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    // Reader side: swaps in the newest published buffer if there is one, then returns the front
+    public T acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & 3;
+        }
+        return slot(front);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T slot(int index) {
+        return (T) slots[index];
+    }
+}